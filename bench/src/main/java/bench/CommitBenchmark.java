@@ -0,0 +1,71 @@
+package bench;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a transaction as a function of the size of its read and write
+ * sets. The first writeSetSize objects are read and written, the rest are
+ * only read. Objects are private to each thread, so there are no conflicts.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommitBenchmark {
+    @Param({"1", "8", "64", "512"})
+    public int readSetSize;
+
+    @Param({"0", "1", "8", "64"})
+    public int writeSetSize;
+
+    private TxObject<Integer>[] objects;
+    private Transaction<Integer> transaction;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() {
+        int count = Math.max(readSetSize, writeSetSize);
+        objects = new TxObject[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = new TxObject<Integer>(i);
+        }
+        transaction = new Transaction<Integer>() {
+            public Integer run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                int sum = 0;
+                for (int i = 0; i < objects.length; i++) {
+                    Integer value = objects[i].read();
+                    if (i < writeSetSize) {
+                        objects[i].write(value);
+                    }
+                    sum += value;
+                }
+                return sum;
+            }
+        };
+    }
+
+    @Benchmark
+    public Integer commit() {
+        return CarlSTM.execute(transaction);
+    }
+}
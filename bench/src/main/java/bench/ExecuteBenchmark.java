@@ -0,0 +1,95 @@
+package bench;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed cost of running a transaction through {@link CarlSTM#execute} and of
+ * single {@link TxObject#read}/{@link TxObject#write} calls. Every thread uses
+ * its own TxObject, so no transaction ever conflicts and the numbers are pure
+ * STM overhead.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecuteBenchmark {
+    private final TxObject<Integer> x = new TxObject<Integer>(0);
+    private final Integer one = 1;
+
+    private final Transaction<Integer> empty = new Transaction<Integer>() {
+        public Integer run() {
+            return one;
+        }
+    };
+
+    private final Transaction<Integer> read = new Transaction<Integer>() {
+        public Integer run() throws NoActiveTransactionException,
+                TransactionAbortedException {
+            return x.read();
+        }
+    };
+
+    private final Transaction<Integer> write = new Transaction<Integer>() {
+        public Integer run() throws NoActiveTransactionException,
+                TransactionAbortedException {
+            x.write(one);
+            return one;
+        }
+    };
+
+    private final Transaction<Integer> readWrite = new Transaction<Integer>() {
+        public Integer run() throws NoActiveTransactionException,
+                TransactionAbortedException {
+            Integer value = x.read();
+            x.write(one);
+            return value;
+        }
+    };
+
+    @Benchmark
+    public Integer emptyTransaction() {
+        return CarlSTM.execute(empty);
+    }
+
+    @Benchmark
+    public Integer emptyReadOnlyTransaction() {
+        return CarlSTM.executeReadOnly(empty);
+    }
+
+    @Benchmark
+    public Integer read() {
+        return CarlSTM.execute(read);
+    }
+
+    @Benchmark
+    public Integer readOnlyRead() {
+        return CarlSTM.executeReadOnly(read);
+    }
+
+    @Benchmark
+    public Integer write() {
+        return CarlSTM.execute(write);
+    }
+
+    @Benchmark
+    public Integer readWrite() {
+        return CarlSTM.execute(readWrite);
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import examples.AtomicHashSet;
+import examples.CoarseHashSet;
+import examples.FineHashSet;
+import examples.Set;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed add/contains workload against the three {@link Set} implementations
+ * in the examples package. Each operation picks a uniformly random key from
+ * [0, keyRange) and is a contains with probability readPercent/100, an add
+ * otherwise. The set starts half full. Pick the thread count with JMH's -t
+ * option, or sweep it with {@link ThreadSweep}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SetBenchmark {
+    @Param({"coarse", "fine", "atomic"})
+    public String impl;
+
+    @Param({"1024", "65536"})
+    public int keyRange;
+
+    @Param({"50", "90", "99"})
+    public int readPercent;
+
+    private Set<Integer> set;
+    /** Boxed keys, so the benchmark does not measure Integer allocation. */
+    private Integer[] keys;
+
+    @Setup
+    public void setup() {
+        if (impl.equals("coarse")) {
+            set = new CoarseHashSet<Integer>();
+        } else if (impl.equals("fine")) {
+            set = new FineHashSet<Integer>();
+        } else if (impl.equals("atomic")) {
+            set = new AtomicHashSet<Integer>();
+        } else {
+            throw new IllegalArgumentException(impl);
+        }
+        keys = new Integer[keyRange];
+        for (int i = 0; i < keyRange; i++) {
+            keys[i] = i;
+        }
+        for (int i = 0; i < keyRange; i += 2) {
+            set.add(keys[i]);
+        }
+    }
+
+    /**
+     * Per-thread random number generator.
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Random random = new Random();
+    }
+
+    @Benchmark
+    public boolean operation(ThreadState state) {
+        Integer key = keys[state.random.nextInt(keyRange)];
+        if (state.random.nextInt(100) < readPercent) {
+            return set.contains(key);
+        }
+        return set.add(key);
+    }
+}
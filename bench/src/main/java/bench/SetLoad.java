@@ -0,0 +1,394 @@
+package bench;
+
+import carlstm.CarlSTM;
+import carlstm.StmMetrics;
+import examples.AtomicHashSet;
+import examples.CoarseHashSet;
+import examples.FineHashSet;
+import examples.Set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load driver for the {@link Set} implementations in the examples package.
+ * Unlike the JMH benchmarks, it runs each configuration for a fixed time with
+ * every thread hammering one shared set, and reports throughput, latency
+ * percentiles and STM abort rates as one CSV line per implementation and
+ * thread count, so scaling curves under skew can be plotted directly.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar bench.SetLoad impl=coarse,fine,atomic threads=16 \
+ *         keys=65536 dist=zipf theta=0.99 addPercent=10 duration=5
+ * </pre>
+ *
+ * Options, all given as name=value:
+ * <ul>
+ * <li>impl: comma-separated list of coarse, fine and atomic (default all)</li>
+ * <li>threads: the highest thread count, swept in powers of two from 1, or an
+ * explicit comma-separated list (default the number of processors)</li>
+ * <li>keys: size of the key space (default 65536)</li>
+ * <li>dist: uniform or zipf (default uniform)</li>
+ * <li>theta: skew of the zipf distribution, below 1 (default 0.99)</li>
+ * <li>addPercent: percentage of operations that are adds; the rest are
+ * contains (default 10)</li>
+ * <li>prefill: percentage of the key space added before each run (default
+ * 50)</li>
+ * <li>warmup, duration: seconds of unmeasured and measured load per run
+ * (default 1 and 5)</li>
+ * </ul>
+ * The sets have no remove, so adds only succeed until their key is present;
+ * with a high add ratio the set fills up and the adds turn into lookups.
+ * Latencies are in microseconds and include the time of aborted attempts.
+ */
+public class SetLoad {
+    private static final String HEADER = "impl,threads,dist,keys,addPercent,"
+            + "ops,opsPerSec,p50,p90,p99,p999,max,commits,aborts,abortRate";
+
+    private final String impl;
+    private final int threads;
+    private final int keys;
+    private final boolean zipf;
+    private final double theta;
+    private final int addPercent;
+    private final int prefill;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private SetLoad(String impl, int threads, Options options) {
+        this.impl = impl;
+        this.threads = threads;
+        this.keys = options.keys;
+        this.zipf = options.zipf;
+        this.theta = options.theta;
+        this.addPercent = options.addPercent;
+        this.prefill = options.prefill;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(options.warmup);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(options.duration);
+    }
+
+    /**
+     * Parsed command line.
+     */
+    private static final class Options {
+        List<String> impls = new ArrayList<String>();
+        List<Integer> threads = new ArrayList<Integer>();
+        int keys = 65536;
+        boolean zipf;
+        double theta = 0.99;
+        int addPercent = 10;
+        int prefill = 50;
+        int warmup = 1;
+        int duration = 5;
+
+        Options(String[] args) {
+            String implList = "coarse,fine,atomic";
+            String threadList = Integer.toString(Runtime.getRuntime().availableProcessors());
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                String name = arg.substring(0, eq);
+                String value = arg.substring(eq + 1);
+                if (name.equals("impl")) {
+                    implList = value;
+                } else if (name.equals("threads")) {
+                    threadList = value;
+                } else if (name.equals("keys")) {
+                    keys = Integer.parseInt(value);
+                } else if (name.equals("dist")) {
+                    if (!value.equals("uniform") && !value.equals("zipf")) {
+                        throw new IllegalArgumentException(arg);
+                    }
+                    zipf = value.equals("zipf");
+                } else if (name.equals("theta")) {
+                    theta = Double.parseDouble(value);
+                } else if (name.equals("addPercent")) {
+                    addPercent = Integer.parseInt(value);
+                } else if (name.equals("prefill")) {
+                    prefill = Integer.parseInt(value);
+                } else if (name.equals("warmup")) {
+                    warmup = Integer.parseInt(value);
+                } else if (name.equals("duration")) {
+                    duration = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+            for (String impl : implList.split(",")) {
+                impls.add(impl.trim());
+            }
+            String[] counts = threadList.split(",");
+            if (counts.length == 1) {
+                int max = Integer.parseInt(counts[0].trim());
+                for (int n = 1; n < max; n *= 2) {
+                    threads.add(n);
+                }
+                threads.add(max);
+            } else {
+                for (String count : counts) {
+                    threads.add(Integer.parseInt(count.trim()));
+                }
+            }
+            if (keys <= 0 || theta <= 0 || theta >= 1 || addPercent < 0
+                    || addPercent > 100 || prefill < 0 || prefill > 100) {
+                throw new IllegalArgumentException("option out of range");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options;
+        try {
+            options = new Options(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("bad option: " + e.getMessage());
+            System.err.println("usage: SetLoad [impl=coarse,fine,atomic] [threads=N|a,b,c]"
+                    + " [keys=N] [dist=uniform|zipf] [theta=0.99] [addPercent=N]"
+                    + " [prefill=N] [warmup=s] [duration=s]");
+            System.exit(1);
+            return;
+        }
+        System.out.println(HEADER);
+        for (String impl : options.impls) {
+            for (int threads : options.threads) {
+                System.out.println(new SetLoad(impl, threads, options).run());
+            }
+        }
+    }
+
+    private static Set<Integer> newSet(String impl) {
+        if (impl.equals("coarse")) {
+            return new CoarseHashSet<Integer>();
+        } else if (impl.equals("fine")) {
+            return new FineHashSet<Integer>();
+        } else if (impl.equals("atomic")) {
+            return new AtomicHashSet<Integer>();
+        }
+        throw new IllegalArgumentException(impl);
+    }
+
+    /**
+     * Run one configuration on a fresh set.
+     *
+     * @return the CSV line for it
+     */
+    private String run() throws InterruptedException {
+        final Set<Integer> set = newSet(impl);
+        final Integer[] boxed = new Integer[keys];
+        for (int i = 0; i < keys; i++) {
+            boxed[i] = i;
+        }
+        SplittableRandom seed = new SplittableRandom(42);
+        for (int i = 0; i < keys; i++) {
+            if (seed.nextInt(100) < prefill) {
+                set.add(boxed[i]);
+            }
+        }
+        final KeyGenerator generator = zipf ? new Zipf(keys, theta) : null;
+        final Worker[] workers = new Worker[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        final StmMetrics metrics = CarlSTM.getMetrics();
+        metrics.setEnabled(true);
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(set, boxed, generator, seed.split(), start);
+            workers[t].start();
+        }
+        start.countDown();
+        TimeUnit.NANOSECONDS.sleep(warmupNanos);
+        metrics.reset();
+        for (Worker worker : workers) {
+            worker.measuring = true;
+        }
+        long begin = System.nanoTime();
+        TimeUnit.NANOSECONDS.sleep(durationNanos);
+        for (Worker worker : workers) {
+            worker.measuring = false;
+        }
+        long elapsed = System.nanoTime() - begin;
+        long commits = metrics.getCommits();
+        long aborts = metrics.getAborts();
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        Latencies total = new Latencies();
+        for (Worker worker : workers) {
+            worker.join();
+            total.add(worker.latencies);
+        }
+        long ops = total.count;
+        double attempts = commits + aborts;
+        return String.format(Locale.ROOT,
+                "%s,%d,%s,%d,%d,%d,%.0f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%.4f",
+                impl, threads, zipf ? "zipf" : "uniform", keys, addPercent,
+                ops, ops * 1e9 / elapsed, total.percentile(50) / 1e3,
+                total.percentile(90) / 1e3, total.percentile(99) / 1e3,
+                total.percentile(99.9) / 1e3, total.max / 1e3,
+                commits, aborts, attempts == 0 ? 0 : aborts / attempts);
+    }
+
+    /**
+     * One load thread. It records latencies only while measuring is set, so
+     * the warm-up and the stop of the other threads do not count.
+     */
+    private final class Worker extends Thread {
+        private final Set<Integer> set;
+        private final Integer[] boxed;
+        private final KeyGenerator generator;
+        private final SplittableRandom random;
+        private final CountDownLatch start;
+        final Latencies latencies = new Latencies();
+        volatile boolean measuring;
+        volatile boolean running = true;
+
+        Worker(Set<Integer> set, Integer[] boxed, KeyGenerator generator,
+                SplittableRandom random, CountDownLatch start) {
+            this.set = set;
+            this.boxed = boxed;
+            this.generator = generator;
+            this.random = random;
+            this.start = start;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (running) {
+                int key = generator == null ? random.nextInt(keys)
+                        : generator.next(random);
+                boolean add = random.nextInt(100) < addPercent;
+                long before = System.nanoTime();
+                if (add) {
+                    set.add(boxed[key]);
+                } else {
+                    set.contains(boxed[key]);
+                }
+                if (measuring) {
+                    latencies.record(System.nanoTime() - before);
+                }
+            }
+        }
+    }
+
+    /**
+     * Source of keys in [0, keys).
+     */
+    private interface KeyGenerator {
+        int next(SplittableRandom random);
+    }
+
+    /**
+     * Zipfian keys, as in Gray et al., "Quickly generating billion-record
+     * synthetic databases": key 0 is the most popular, key 1 the second most
+     * popular and so on, with popularity falling off as 1 / rank^theta.
+     * The keys map to consecutive hash buckets, so the hot keys do not share
+     * a bucket.
+     */
+    private static final class Zipf implements KeyGenerator {
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        Zipf(int items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            double zeta2 = zeta(2, theta);
+            this.zetan = zeta(items, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public int next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            int key = (int) (items * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(key, items - 1);
+        }
+    }
+
+    /**
+     * Latency histogram of one thread with buckets 1/16 of a power of two
+     * wide, so percentiles are accurate to about 6%.
+     */
+    private static final class Latencies {
+        private static final int SUB_BITS = 4;
+        private final long[] counts = new long[64 << SUB_BITS];
+        long count;
+        long max;
+
+        void record(long nanos) {
+            counts[bucket(nanos)]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        void add(Latencies other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the percentile, in
+         *         nanoseconds
+         */
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int bucket(long value) {
+            if (value < (1 << SUB_BITS)) {
+                return (int) Math.max(value, 0);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int mantissa = (int) (value >>> exponent) & ((1 << SUB_BITS) - 1);
+            return ((exponent + 1) << SUB_BITS) + mantissa;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < (1 << SUB_BITS)) {
+                return bucket;
+            }
+            int exponent = (bucket >>> SUB_BITS) - 1;
+            long mantissa = bucket & ((1 << SUB_BITS) - 1);
+            return (((1L << SUB_BITS) + mantissa + 1) << exponent) - 1;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count and writes one CSV file
+ * per count, so that throughput-vs-threads curves can be plotted.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar bench.ThreadSweep 1,2,4,8 SetBenchmark
+ * </pre>
+ */
+public class ThreadSweep {
+    public static void main(String[] args) throws RunnerException {
+        if (args.length < 1) {
+            System.err.println("usage: ThreadSweep threads[,threads...] [benchmark regex]");
+            System.exit(1);
+        }
+        String include = args.length > 1 ? args[1] : ".*";
+        for (String count : args[0].split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.CSV)
+                    .result("jmh-threads-" + threads + ".csv")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
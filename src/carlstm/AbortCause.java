@@ -0,0 +1,44 @@
+package carlstm;
+
+/**
+ * The reason an attempt of a transaction aborted, as counted by
+ * {@link StmMetrics}.
+ */
+public enum AbortCause {
+	/**
+	 * A read found the object locked by a committing transaction and the
+	 * contention manager chose not to wait.
+	 */
+	LOCKED_ON_READ,
+	/**
+	 * A read found that the object was updated after the transaction started.
+	 */
+	NEWER_ON_READ,
+	/**
+	 * The commit could not lock an object in the write set.
+	 */
+	LOCK_FAILED,
+	/**
+	 * The commit found that an object in the read set had been updated.
+	 */
+	VALIDATION_FAILED,
+	/**
+	 * The transaction threw {@link TransactionAbortedException} itself.
+	 */
+	EXPLICIT,
+	/**
+	 * The transaction called {@link CarlSTM#retry()} to wait for its read set
+	 * to change.
+	 */
+	RETRY,
+	/**
+	 * An eager transaction had to undo part of its work, which it cannot do
+	 * without aborting, and runs again in lazy mode.
+	 */
+	EAGER_ROLLBACK,
+	/**
+	 * The transaction called {@link CarlSTM#becomeIrrevocable()} and runs
+	 * again irrevocably.
+	 */
+	IRREVOCABLE
+}
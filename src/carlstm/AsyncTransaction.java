@@ -0,0 +1,135 @@
+package carlstm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transaction started with {@link CarlSTM#executeAsync}. Each run of this
+ * task is one attempt. The contention state lives here rather than in the
+ * thread's TxInfo, so it survives when the next attempt runs on another
+ * thread.
+ */
+final class AsyncTransaction<T> implements Runnable {
+	private static Executor defaultExecutor;
+
+	final CompletableFuture<T> future = new CompletableFuture<T>();
+	private final Transaction<T> tx;
+	private final Executor executor;
+	private final ContentionManager manager;
+	private boolean eager;
+	private final ContentionInfo info = new ContentionInfo();
+	/**
+	 * Wakeup after a retry. It is called by the commit that changed the read
+	 * set, on the committing thread, so it must not run the next attempt
+	 * there: even a direct executor would run it inside that commit and on
+	 * that thread's TxInfo. The attempt is submitted from another thread.
+	 */
+	private final Runnable resubmit = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				ForkJoinPool.commonPool().execute(submit);
+			} catch (RuntimeException e) {
+				manager.onFinish(info);
+				future.completeExceptionally(e);
+			}
+		}
+	};
+	private final Runnable submit = new Runnable() {
+		@Override
+		public void run() {
+			submit(0);
+		}
+	};
+
+	AsyncTransaction(Transaction<T> tx, Executor executor, ExecutionMode mode,
+			ContentionManager manager) {
+		if (tx == null || executor == null) {
+			throw new NullPointerException();
+		}
+		this.tx = tx;
+		this.executor = executor;
+		this.manager = manager;
+		this.eager = mode == ExecutionMode.EAGER;
+		info.begin();
+	}
+
+	/**
+	 * @return an executor that starts a virtual thread per task if the
+	 *         platform has them, or the common fork-join pool
+	 */
+	static synchronized Executor defaultExecutor() {
+		if (defaultExecutor == null) {
+			try {
+				defaultExecutor = (ExecutorService) Executors.class.getMethod(
+						"newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				defaultExecutor = ForkJoinPool.commonPool();
+			}
+		}
+		return defaultExecutor;
+	}
+
+	@Override
+	public void run() {
+		TxInfo txInfo = TxInfo.forThread();
+		if (txInfo.activeTransaction) {
+			// a direct executor ran us inside another transaction
+			future.completeExceptionally(new TransactionAlreadyActiveException());
+			return;
+		}
+		txInfo.contention = info;
+		txInfo.contentionManager = manager;
+		long delay;
+		try {
+			T result = CarlSTM.attempt(txInfo, tx, false, eager);
+			manager.onFinish(info);
+			future.complete(result);
+			return;
+		} catch (TransactionAbortedException e) {
+			if (txInfo.abortCause == AbortCause.RETRY) {
+				// resubmit once the read set changes instead of blocking
+				CarlSTM.retried(txInfo, resubmit).register();
+				return;
+			}
+			delay = CarlSTM.aborted(txInfo);
+			if (txInfo.abortCause == AbortCause.EAGER_ROLLBACK) {
+				// nothing conflicted, so run again at once, buffering
+				eager = false;
+				delay = 0;
+			}
+		} catch (Throwable e) {
+			txInfo.abort();
+			manager.onFinish(info);
+			future.completeExceptionally(e);
+			return;
+		} finally {
+			txInfo.contention = txInfo.threadContention;
+		}
+		submit(delay);
+	}
+
+	/**
+	 * Hand the next attempt to the executor.
+	 *
+	 * @param delay nanoseconds to wait first
+	 */
+	private void submit(long delay) {
+		try {
+			if (delay <= 0) {
+				executor.execute(this);
+			} else {
+				CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS,
+						executor).execute(this);
+			}
+		} catch (RuntimeException e) {
+			// the executor refused the next attempt, so the transaction ends
+			manager.onFinish(info);
+			future.completeExceptionally(e);
+		}
+	}
+}
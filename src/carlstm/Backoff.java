@@ -0,0 +1,63 @@
+package carlstm;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helpers used by the contention managers to wait for short periods.
+ */
+final class Backoff {
+	/**
+	 * Delays shorter than this are spun rather than parked, since parking
+	 * rarely wakes up sooner than a few tens of microseconds.
+	 */
+	private static final long SPIN_LIMIT = 50000;
+
+	private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private Backoff() {
+	}
+
+	/**
+	 * Wait for about the given number of nanoseconds.
+	 */
+	static void pause(long nanos) {
+		if (nanos <= 0) {
+			return;
+		}
+		if (nanos < SPIN_LIMIT) {
+			long deadline = System.nanoTime() + nanos;
+			while (System.nanoTime() < deadline) {
+				Thread.yield();
+			}
+		} else {
+			LockSupport.parkNanos(nanos);
+		}
+	}
+
+	/**
+	 * @return the delay for the given number of aborts, doubling from base up
+	 *         to cap
+	 */
+	static long exponential(long base, long cap, int aborts) {
+		if (aborts >= 62 || base << aborts > cap || base << aborts <= 0) {
+			return cap;
+		}
+		return base << aborts;
+	}
+
+	/**
+	 * @return a uniformly random delay in [0, bound)
+	 */
+	static long randomBelow(long bound) {
+		if (bound <= 0) {
+			return 0;
+		}
+		return (long) (random.get().nextDouble() * bound);
+	}
+}
@@ -0,0 +1,57 @@
+package carlstm;
+
+/**
+ * The default contention manager. After each abort a transaction waits for a
+ * random delay below a bound that starts small and doubles with every abort up
+ * to a fixed maximum, so retries under light contention happen within
+ * microseconds while repeated conflicts spread out without the delay growing
+ * without limit.
+ */
+public class BackoffContentionManager implements ContentionManager {
+	private static final int WAIT_SPINS = 16;
+
+	private final long minDelay;
+	private final long maxDelay;
+
+	/**
+	 * Create a manager that backs off between 1 microsecond and 1 millisecond.
+	 */
+	public BackoffContentionManager() {
+		this(1000, 1000000);
+	}
+
+	/**
+	 * @param minDelay bound on the delay after the first abort, in nanoseconds
+	 * @param maxDelay largest bound on the delay, in nanoseconds
+	 */
+	public BackoffContentionManager(long minDelay, long maxDelay) {
+		if (minDelay <= 0 || maxDelay < minDelay) {
+			throw new IllegalArgumentException();
+		}
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	@Override
+	public void onStart(ContentionInfo info) {
+	}
+
+	@Override
+	public boolean shouldWait(ContentionInfo info, int spins) {
+		if (spins >= WAIT_SPINS) {
+			return false;
+		}
+		Thread.yield();
+		return true;
+	}
+
+	@Override
+	public long onAbort(ContentionInfo info) {
+		long bound = Backoff.exponential(minDelay, maxDelay, info.getAborts() - 1);
+		return Backoff.randomBelow(bound);
+	}
+
+	@Override
+	public void onCommit(ContentionInfo info) {
+	}
+}
@@ -1,5 +1,8 @@
 package carlstm;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 /**
  * This class coordinates transaction execution. You can execute a transaction
  * using {@link #execute}. For example:
@@ -27,14 +30,6 @@ import java.util.concurrent.atomic.AtomicInteger;
  * }
  * </pre>
  */
-class Double{
-	int commitCounter;
-	int abortCounter;
-	public Double(int commitCounter, int abortCounter){
-		this.commitCounter = commitCounter;
-		this.abortCounter = abortCounter;
-	}
-}
 class ThreadLocalExample{
 	private static final ThreadLocal<TxInfo> myThreadLocal = new ThreadLocal<TxInfo>();
 	public static void set(TxInfo txInfo){
@@ -44,22 +39,173 @@ class ThreadLocalExample{
 		return myThreadLocal.get();
 	}
 }
-class ThreadLocalCounter {
-	private static final ThreadLocal<Double> myThreadLocal = new ThreadLocal<Double>();
-	public static void set(Double pair){
-		myThreadLocal.set(pair);
+public class CarlSTM {
+	private static volatile ContentionManager contentionManager =
+			new BackoffContentionManager();
+	private static final StmMetrics metrics = new StmMetrics();
+	private static volatile ExecutionMode executionMode = ExecutionMode.LAZY;
+	private static volatile int irrevocableAborts = 16;
+	private static volatile int irrevocableSize = 4096;
+
+	/**
+	 * Most times a nested transaction is restarted on its own after a
+	 * conflict before the whole transaction aborts.
+	 */
+	private static final int MAX_NESTED_RESTARTS = 8;
+
+	/**
+	 * @return the commit, abort and latency metrics of all transactions
+	 */
+	public static StmMetrics getMetrics() {
+		return metrics;
 	}
-	public static Double get(){
-		return myThreadLocal.get();
+
+	/**
+	 * Install the contention manager used by transactions that are not given
+	 * one explicitly.
+	 * 
+	 * @param manager the new default contention manager
+	 */
+	public static void setContentionManager(ContentionManager manager) {
+		if (manager == null) {
+			throw new NullPointerException();
+		}
+		contentionManager = manager;
+	}
+
+	/**
+	 * @return the contention manager used by transactions that are not given
+	 *         one explicitly
+	 */
+	public static ContentionManager getContentionManager() {
+		return contentionManager;
+	}
+
+	/**
+	 * Turn multi-version mode on or off. While it is on, every commit to a
+	 * {@link TxObject} keeps the value it replaces for as long as a running
+	 * read-only transaction may need it, and read-only transactions read a
+	 * consistent snapshot as of their start: an object updated after they
+	 * started is read from its history instead of aborting them. Writing
+	 * transactions and the primitive cells such as {@link TxInt} behave as
+	 * before. The cost is one small allocation per updated TxObject per
+	 * commit.
+	 * 
+	 * @param enabled true to keep old versions for snapshot reads
+	 */
+	public static void setMultiVersion(boolean enabled) {
+		Snapshots.setEnabled(enabled);
+	}
+
+	/**
+	 * @return true if multi-version mode is on
+	 */
+	public static boolean isMultiVersion() {
+		return Snapshots.isEnabled();
+	}
+
+	/**
+	 * Set how transactions that are not given a mode explicitly handle their
+	 * writes. The default is {@link ExecutionMode#LAZY}.
+	 * 
+	 * @param mode the new default execution mode
+	 */
+	public static void setExecutionMode(ExecutionMode mode) {
+		if (mode == null) {
+			throw new NullPointerException();
+		}
+		executionMode = mode;
+	}
+
+	/**
+	 * @return the execution mode of transactions that are not given one
+	 *         explicitly
+	 */
+	public static ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Install a redo log, so that from now on every commit that writes a cell
+	 * registered with it is appended to the log and returns once the log is
+	 * on disk. If appending or forcing fails, the commit has already taken
+	 * effect in memory and {@link #execute} throws the failure.
+	 * 
+	 * @param log the redo log, or null to stop logging
+	 */
+	public static void setRedoLog(RedoLog log) {
+		RedoLog.installed = log;
+	}
+
+	/**
+	 * @return the installed redo log, or null if commits are not logged
+	 */
+	public static RedoLog getRedoLog() {
+		return RedoLog.installed;
+	}
+
+	/**
+	 * Set when a transaction that keeps aborting becomes irrevocable. Its
+	 * next attempt then waits for the running writing transactions to finish
+	 * and keeps new ones from starting until it is done, so it cannot lose a
+	 * conflict and commits on that attempt. Read-only transactions keep
+	 * running alongside it. The defaults are 16 aborts and 4096 objects.
+	 * 
+	 * @param aborts number of aborts after which a transaction becomes
+	 *            irrevocable, or 0 to never count aborts
+	 * @param setSize number of objects an aborted attempt must have read or
+	 *            written to make the transaction irrevocable at once, or 0
+	 *            to never look at the size
+	 */
+	public static void setIrrevocableThresholds(int aborts, int setSize) {
+		if (aborts < 0 || setSize < 0) {
+			throw new IllegalArgumentException();
+		}
+		irrevocableAborts = aborts;
+		irrevocableSize = setSize;
+	}
+
+	/**
+	 * @return the number of aborts after which a transaction becomes
+	 *         irrevocable, or 0 if aborts are not counted
+	 */
+	public static int getIrrevocableAbortThreshold() {
+		return irrevocableAborts;
 	}
-}
-public class CarlSTM {
 
+	/**
+	 * @return the number of objects an aborted attempt must have accessed to
+	 *         make the transaction irrevocable, or 0 if the size is ignored
+	 */
+	public static int getIrrevocableSizeThreshold() {
+		return irrevocableSize;
+	}
+
+	/**
+	 * @return the number of stripes in the shared table of ownership records,
+	 *         or 0 if every transactional object has its own lock word. The
+	 *         table is sized once, from the system property
+	 *         {@code carlstm.ownershipRecords}, when the STM is first used.
+	 */
+	public static int getOwnershipRecordStripes() {
+		return OwnershipRecords.stripes();
+	}
 
 	/**
 	 * Execute a transaction and return its result. This method needs to
 	 * repeatedly start, execute, and commit the transaction until it
 	 * successfully commits.
+	 * <p>
+	 * Called inside a running transaction, the transaction is nested in it
+	 * instead: its reads and writes become part of the enclosing transaction
+	 * and commit with it. If the nested transaction runs into a conflict, only
+	 * its own work is undone and it runs again, as long as everything the
+	 * enclosing transaction read before it is still valid. The enclosing
+	 * transaction's contention manager and read-only mode stay in effect.
+	 * <p>
+	 * A transaction that aborts too often, or whose aborted attempt accessed
+	 * too many objects, becomes irrevocable; see
+	 * {@link #setIrrevocableThresholds(int, int)}.
 	 * 
 	 * @param <T> return type of the transaction
 	 * @param tx transaction to be executed
@@ -67,48 +213,598 @@ public class CarlSTM {
 	 */
 
 	public static <T> T execute(Transaction<T> tx) {
-		// TODO implement me
-		TxInfo txInfo = new TxInfo();
-		Double dou = new Double(0, 0);
-		ThreadLocalExample.set(txInfo);
-		ThreadLocalCounter.set(dou);
-		boolean successful = false;
-		int sleepTime = 1;
-		T runResult = null;
-		while (!successful){
-			try {
-				txInfo.start();
-				runResult = tx.run();
-				boolean tempResult = txInfo.commit();
-				if (tempResult){
-					successful = true;
-					ThreadLocalCounter.get().commitCounter++;
-				}else {
-					System.out.println("Aborted after check!!!!!!!!!!!!!!!!!!!!!!!!!");
-					//txInfo.abort();
-					throw new TransactionAbortedException();
+		return execute(tx, false, executionMode, contentionManager);
+	}
 
+	/**
+	 * Execute a transaction in the given execution mode instead of the
+	 * default one. A nested transaction runs in the mode of the transaction
+	 * it is nested in.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @param mode execution mode for this transaction
+	 * @return result of the transaction
+	 */
+	public static <T> T execute(Transaction<T> tx, ExecutionMode mode) {
+		if (mode == null) {
+			throw new NullPointerException();
+		}
+		return execute(tx, false, mode, contentionManager);
+	}
+
+	/**
+	 * Execute a transaction, resolving its conflicts with the given contention
+	 * manager instead of the default one.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @param manager contention manager for this transaction
+	 * @return result of the transaction
+	 */
+	public static <T> T execute(Transaction<T> tx, ContentionManager manager) {
+		return execute(tx, false, executionMode, manager);
+	}
+
+	/**
+	 * Execute a transaction that only reads {@link TxObject}s. A read-only
+	 * transaction keeps no read log and no write buffer: every read is checked
+	 * against the transaction's start version, so the commit needs no locking
+	 * and no validation. Calling {@link TxObject#write} inside the transaction
+	 * throws {@link ReadOnlyTransactionException}.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @return result of the transaction
+	 */
+	public static <T> T executeReadOnly(Transaction<T> tx) {
+		return execute(tx, true, ExecutionMode.LAZY, contentionManager);
+	}
+
+	/**
+	 * Execute a read-only transaction with the given contention manager.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @param manager contention manager for this transaction
+	 * @return result of the transaction
+	 * @see #executeReadOnly(Transaction)
+	 */
+	public static <T> T executeReadOnly(Transaction<T> tx,
+			ContentionManager manager) {
+		return execute(tx, true, ExecutionMode.LAZY, manager);
+	}
+
+	/**
+	 * Execute many small transactions with one commit for as many of them as
+	 * possible. The members run one after another in a single attempt, each
+	 * behind its own savepoint, and are then committed together: the write
+	 * sets are locked, the clock is advanced and the read sets are validated
+	 * once for the whole group. A member that runs into a conflict, and every
+	 * member after it, is rolled back and runs again in the next group, so
+	 * only conflicting members are retried.
+	 * <p>
+	 * Each member is atomic on its own and sees the writes of the members
+	 * before it in the same group. If a member throws an exception other than
+	 * {@link TransactionAbortedException}, the members already committed in
+	 * earlier groups stay committed, the rest are abandoned, and the exception
+	 * propagates. Called inside a running transaction, the members simply run
+	 * nested in it.
+	 * 
+	 * @param batch transactions to be executed
+	 * @return the result of each transaction, in the order of the batch
+	 */
+	public static List<Object> executeBatch(List<? extends Transaction<?>> batch) {
+		TxInfo txInfo = TxInfo.forThread();
+		Object[] results = new Object[batch.size()];
+		if (txInfo.activeTransaction) {
+			for (int i = 0; i < results.length; i++) {
+				results[i] = nested(txInfo, batch.get(i));
+			}
+			return Arrays.asList(results);
+		}
+		ContentionInfo info = txInfo.threadContention;
+		ContentionManager manager = contentionManager;
+		txInfo.contention = info;
+		txInfo.contentionManager = manager;
+		info.begin();
+		int done = 0;
+		try {
+			while (done < results.length) {
+				try {
+					done = attemptBatch(txInfo, batch, done, results);
+					if (done < results.length) {
+						// the next group starts afresh
+						manager.onFinish(info);
+						info.begin();
+					}
+				} catch (NoActiveTransactionException e) {
+					// the members run inside a transaction on this thread, so
+					// this is a member's own failure; pass it on like any other
+					txInfo.abort();
+					throw new IllegalStateException(e);
+				} catch (TransactionAbortedException e) {
+					if (txInfo.abortCause == AbortCause.RETRY) {
+						retried(txInfo, null).await();
+						continue;
+					}
+					Backoff.pause(aborted(txInfo));
+				} catch (RuntimeException e) {
+					txInfo.abort();
+					throw e;
+				} catch (Error e) {
+					txInfo.abort();
+					throw e;
 				}
-			} catch (NoActiveTransactionException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
+			}
+		} finally {
+			manager.onFinish(info);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Run and commit one group of a batch, starting with the first member not
+	 * committed yet.
+	 * 
+	 * @return the index of the first member left for the next group
+	 * @throws TransactionAbortedException if not even the first member of the
+	 *             group could commit
+	 */
+	private static int attemptBatch(TxInfo txInfo,
+			List<? extends Transaction<?>> batch, int from, Object[] results)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		ContentionInfo info = txInfo.contention;
+		txInfo.contentionManager.onStart(info);
+		boolean irrevocable = info.irrevocable;
+		if (irrevocable) {
+			Irrevocable.begin(txInfo);
+		}
+		int end;
+		try {
+			end = runBatch(txInfo, batch, from, results);
+		} finally {
+			if (irrevocable) {
+				Irrevocable.end(txInfo);
+			}
+		}
+		txInfo.runAfterCommit();
+		return end;
+	}
+
+	/**
+	 * Run the members of one group and commit the ones that are still valid.
+	 */
+	private static int runBatch(TxInfo txInfo,
+			List<? extends Transaction<?>> batch, int from, Object[] results)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		ContentionManager manager = txInfo.contentionManager;
+		ContentionInfo info = txInfo.contention;
+		TxLog log = txInfo.log;
+		// dropping members takes a partial rollback, which needs lazy mode
+		txInfo.start(false, false);
+		int end = from;
+		while (end < results.length) {
+			log.savepoint();
+			try {
+				results[end] = batch.get(end).run();
 			} catch (TransactionAbortedException e) {
-				// TODO Auto-generated catch block
+				if (end == from) {
+					throw e;
+				}
+				// leave this member for the next group
+				log.rollback();
+				txInfo.abortCause = null;
+				txInfo.conflict = null;
+				break;
+			}
+			end++;
+		}
+		// drop the first member whose reads went stale, and the members after
+		// it, which may have seen its writes
+		int stale = txInfo.firstStaleRead();
+		if (stale >= 0) {
+			int member = log.depth - 1;
+			while (log.savepointSize(member) > stale) {
+				member--;
+			}
+			if (member == 0) {
+				throw txInfo.abortWith(AbortCause.VALIDATION_FAILED, null);
+			}
+			while (log.depth > member) {
+				log.rollback();
+			}
+			end = from + member;
+		}
+		while (log.depth > 0) {
+			log.release();
+		}
+		boolean measure = metrics.isEnabled();
+		long commitStart = measure ? System.nanoTime() : 0;
+		if (!txInfo.commit()) {
+			throw TransactionAbortedException.INSTANCE;
+		}
+		if (measure) {
+			long now = System.nanoTime();
+			metrics.committed(txInfo, info.getAborts(), now - commitStart,
+					now - info.getStartTime());
+		}
+		manager.onCommit(info);
+		return end;
+	}
+
+	/**
+	 * Execute a transaction asynchronously on the default executor, which runs
+	 * every attempt on a new virtual thread where the platform supports them
+	 * and on the common fork-join pool otherwise.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @return a future completed with the result of the transaction
+	 * @see #executeAsync(Transaction, Executor)
+	 */
+	public static <T> CompletableFuture<T> executeAsync(Transaction<T> tx) {
+		return executeAsync(tx, AsyncTransaction.defaultExecutor());
+	}
+
+	/**
+	 * Execute a transaction asynchronously. Each attempt runs as one task on
+	 * the executor and binds the executing thread's transactional state only
+	 * for the length of that task, so consecutive attempts may run on
+	 * different threads. When an attempt aborts, the next attempt is submitted
+	 * again after the contention manager's back-off delay instead of blocking
+	 * a thread. The future completes exceptionally if the transaction throws
+	 * anything other than {@link TransactionAbortedException}.
+	 * 
+	 * @param <T> return type of the transaction
+	 * @param tx transaction to be executed
+	 * @param executor executor to run the attempts on
+	 * @return a future completed with the result of the transaction
+	 */
+	public static <T> CompletableFuture<T> executeAsync(Transaction<T> tx,
+			Executor executor) {
+		AsyncTransaction<T> async = new AsyncTransaction<T>(tx, executor,
+				executionMode, contentionManager);
+		executor.execute(async);
+		return async.future;
+	}
+
+	private static <T> T execute(Transaction<T> tx, boolean readOnly,
+			ExecutionMode mode, ContentionManager manager) {
+		if (manager == null) {
+			throw new NullPointerException();
+		}
+		TxInfo txInfo = TxInfo.forThread();
+		if (txInfo.activeTransaction) {
+			return nested(txInfo, tx);
+		}
+		ContentionInfo info = txInfo.threadContention;
+		txInfo.contention = info;
+		txInfo.contentionManager = manager;
+		info.begin();
+		boolean eager = mode == ExecutionMode.EAGER;
+		try {
+			while (true){
 				try {
-					Thread.sleep(sleepTime);
-					sleepTime *= 100;
-				} catch(InterruptedException e1) {
-					e1.printStackTrace();
-				} finally {
-					e.printStackTrace();
+					return attempt(txInfo, tx, readOnly, eager);
+				} catch (NoActiveTransactionException e) {
+					// the attempt runs inside a transaction on this thread, so
+					// this is the transaction's own failure; pass it on
 					txInfo.abort();
-					ThreadLocalCounter.get().abortCounter++;
+					throw new IllegalStateException(e);
+				} catch (TransactionAbortedException e) {
+					if (txInfo.abortCause == AbortCause.RETRY) {
+						retried(txInfo, null).await();
+						continue;
+					}
+					if (txInfo.abortCause == AbortCause.EAGER_ROLLBACK) {
+						// nothing conflicted, so run again at once, buffering
+						eager = false;
+						aborted(txInfo);
+						continue;
+					}
+					// the contention manager decides how long to back off
+					// before the next attempt
+					Backoff.pause(aborted(txInfo));
+				} catch (RuntimeException e) {
+					// the TxInfo is reused by the next transaction on this
+					// thread, so it must not be left active
+					txInfo.abort();
+					throw e;
+				} catch (Error e) {
+					txInfo.abort();
+					throw e;
+				}
+			}
+		} finally {
+			manager.onFinish(info);
+		}
+	}
+
+	/**
+	 * Run a transaction inside the one already running on this thread, behind
+	 * a savepoint of the log.
+	 */
+	private static <T> T nested(TxInfo txInfo, Transaction<T> tx) {
+		for (int restarts = 0;; restarts++) {
+			txInfo.log.savepoint();
+			// writes made in place since the savepoint cannot be rolled back
+			int inPlaceWrites = txInfo.inPlaceWrites;
+			try {
+				T result = tx.run();
+				txInfo.log.release();
+				return result;
+			} catch (TransactionAbortedException e) {
+				AbortCause cause = txInfo.abortCause;
+				if ((cause == AbortCause.LOCKED_ON_READ
+						|| cause == AbortCause.NEWER_ON_READ)
+						&& restarts < MAX_NESTED_RESTARTS
+						&& txInfo.inPlaceWrites == inPlaceWrites) {
+					TxCell conflict = txInfo.conflict;
+					if (txInfo.restartNested()) {
+						if (metrics.isEnabled()) {
+							metrics.aborted(cause, conflict);
+						}
+						continue;
+					}
+				} else {
+					// a retry stays visible to an enclosing orElse
+					txInfo.log.release();
 				}
+				throw CarlSTM.<RuntimeException>rethrow(e);
+			} catch (NoActiveTransactionException e) {
+				txInfo.log.release();
+				throw CarlSTM.<RuntimeException>rethrow(e);
+			} catch (RuntimeException e) {
+				// an exception leaving the nested transaction undoes its writes,
+				// in case the enclosing transaction catches it and goes on
+				rollbackNested(txInfo, inPlaceWrites);
+				throw e;
+			} catch (Error e) {
+				rollbackNested(txInfo, inPlaceWrites);
+				throw e;
 			}
-			//System.out.println(Thread.currentThread().getName() + " commit:" + ThreadLocalCounter.get().commitCounter + " abort:" + ThreadLocalCounter.get().abortCounter);
 		}
+	}
+
+	/**
+	 * Undo a nested transaction that threw. If it wrote in place, its writes
+	 * stay until the enclosing transaction ends, and that transaction must
+	 * not commit but run again lazily.
+	 */
+	private static void rollbackNested(TxInfo txInfo, int inPlaceWrites) {
+		if (txInfo.inPlaceWrites == inPlaceWrites) {
+			txInfo.log.rollback();
+		} else {
+			txInfo.log.release();
+			txInfo.lazyRerun = true;
+		}
+	}
+
+	/**
+	 * Throw a checked exception from a method that does not declare it. A
+	 * nested {@link #execute} uses this to let an abort unwind to the
+	 * outermost one, which retries the whole transaction.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends Exception> E rethrow(Exception e) throws E {
+		throw (E) e;
+	}
 
+	/**
+	 * Run one attempt of a transaction with the contention manager and
+	 * contention state already installed in the TxInfo.
+	 * 
+	 * @return the result of the transaction if it committed
+	 * @throws TransactionAbortedException if the attempt aborted
+	 */
+	static <T> T attempt(TxInfo txInfo, Transaction<T> tx, boolean readOnly,
+			boolean eager)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		ContentionManager manager = txInfo.contentionManager;
+		ContentionInfo info = txInfo.contention;
+		manager.onStart(info);
+		boolean irrevocable = info.irrevocable;
+		if (irrevocable) {
+			// wait for the other writers before the read version is taken
+			Irrevocable.begin(txInfo);
+		}
+		T runResult;
+		try {
+			txInfo.start(readOnly, eager);
+			runResult = tx.run();
+			boolean measure = metrics.isEnabled();
+			long commitStart = measure ? System.nanoTime() : 0;
+			if (!txInfo.commit()){
+				throw TransactionAbortedException.INSTANCE;
+			}
+			if (measure) {
+				long now = System.nanoTime();
+				metrics.committed(txInfo, info.getAborts(),
+						now - commitStart, now - info.getStartTime());
+			}
+			manager.onCommit(info);
+		} finally {
+			if (irrevocable) {
+				Irrevocable.end(txInfo);
+			}
+		}
+		txInfo.runAfterCommit();
 		return runResult;
 	}
+
+	/**
+	 * Run an action once the transaction running on this thread has
+	 * committed. Inside a nested transaction or a member of
+	 * {@link #executeBatch}, that is when the outermost transaction commits.
+	 * The action is dropped if the attempt aborts or the nested transaction
+	 * that added it is rolled back, so it runs at most once per committed
+	 * transaction. Use it for bookkeeping outside the STM that must only see
+	 * committed state. Actions run in the order they were added, on the
+	 * committing thread, after the transaction has ended; an exception from
+	 * one is thrown by the call that ran the transaction, and the actions
+	 * after it do not run.
+	 * 
+	 * @param action action to run after the commit
+	 * @throws NoActiveTransactionException if no transaction is running
+	 */
+	public static void afterCommit(Runnable action)
+			throws NoActiveTransactionException {
+		if (action == null) {
+			throw new NullPointerException();
+		}
+		TxInfo.current().log.addAction(action);
+	}
+
+	/**
+	 * Make the running transaction irrevocable before it does something that
+	 * cannot be undone, such as I/O. Unless it already is irrevocable, the
+	 * current attempt aborts and the transaction runs again irrevocably: no
+	 * writing transaction runs alongside it, so it commits on that attempt
+	 * and runs its side effects once. It still aborts if it throws
+	 * {@link TransactionAbortedException} itself or calls {@link #retry()},
+	 * and the next attempt is irrevocable again.
+	 * 
+	 * @throws TransactionAbortedException if the transaction has to run again
+	 *             to become irrevocable
+	 * @throws NoActiveTransactionException if no transaction is running
+	 */
+	public static void becomeIrrevocable() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		if (!txInfo.irrevocable) {
+			throw txInfo.abortWith(AbortCause.IRREVOCABLE, null);
+		}
+	}
+
+	/**
+	 * @return true if the calling thread is running an irrevocable
+	 *         transaction
+	 */
+	public static boolean isIrrevocable() {
+		TxInfo txInfo = ThreadLocalExample.get();
+		return txInfo != null && txInfo.activeTransaction
+				&& txInfo.irrevocable;
+	}
+
+	/**
+	 * Abort the current attempt and block until another transaction commits
+	 * to one of the objects it has read, then run the transaction again. Use
+	 * this to wait for a condition:
+	 * 
+	 * <pre>
+	 * if (queue.isEmpty()) {
+	 * 	CarlSTM.retry();
+	 * }
+	 * </pre>
+	 * 
+	 * A read-only transaction keeps no read set, so it waits for any commit
+	 * instead. Inside {@link #orElse}, a retry moves on to the next
+	 * alternative rather than blocking. If the blocked thread is interrupted,
+	 * the transaction ends with a {@link TransactionInterruptedException} and
+	 * the interrupt stays set. An asynchronous transaction does not block a
+	 * thread; its next attempt is handed to its executor instead.
+	 * 
+	 * @throws TransactionAbortedException always
+	 * @throws NoActiveTransactionException if no transaction is running
+	 */
+	public static void retry() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		throw TxInfo.current().abortWith(AbortCause.RETRY, null);
+	}
+
+	/**
+	 * Run the first alternative inside the current transaction, and if it
+	 * calls {@link #retry()}, undo its writes and run the second one instead.
+	 * If the second one also retries, the whole transaction waits until an
+	 * object read by either alternative changes. If the first alternative
+	 * wrote in place in an eager transaction, its writes cannot be undone on
+	 * their own, and the whole transaction runs again in lazy mode. Any other
+	 * exception from the first alternative undoes its writes, as it would
+	 * for a nested transaction, and is passed on.
+	 * 
+	 * @param <T> return type of the alternatives
+	 * @param first alternative to try first
+	 * @param second alternative to run if the first retries
+	 * @return the result of the alternative that did not retry
+	 * @throws NoActiveTransactionException if no transaction is running
+	 */
+	public static <T> T orElse(Transaction<T> first, Transaction<T> second)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		txInfo.log.savepoint();
+		int inPlaceWrites = txInfo.inPlaceWrites;
+		T result;
+		try {
+			result = first.run();
+		} catch (TransactionAbortedException e) {
+			if (txInfo.abortCause != AbortCause.RETRY) {
+				// close the savepoint, so that an enclosing nested transaction
+				// that restarts rolls back to its own
+				txInfo.log.release();
+				throw e;
+			}
+			if (txInfo.inPlaceWrites != inPlaceWrites) {
+				txInfo.log.release();
+				throw txInfo.abortWith(AbortCause.EAGER_ROLLBACK, null);
+			}
+			txInfo.abortCause = null;
+			txInfo.rollbackToSavepoint();
+			return second.run();
+		} catch (NoActiveTransactionException e) {
+			txInfo.log.release();
+			throw e;
+		} catch (RuntimeException e) {
+			rollbackNested(txInfo, inPlaceWrites);
+			throw e;
+		} catch (Error e) {
+			rollbackNested(txInfo, inPlaceWrites);
+			throw e;
+		}
+		txInfo.log.release();
+		return result;
+	}
+
+	/**
+	 * Clean up after an attempt that called {@link #retry()}.
+	 * 
+	 * @param resume task to run once the read set changes, or null to let the
+	 *            caller block in {@link Waiter#await()}
+	 * @return the waiter for the read set of the attempt
+	 */
+	static Waiter retried(TxInfo txInfo, Runnable resume) {
+		if (metrics.isEnabled()) {
+			metrics.aborted(AbortCause.RETRY, null);
+		}
+		Waiter waiter = new Waiter(txInfo, resume);
+		txInfo.abort();
+		return waiter;
+	}
+
+	/**
+	 * Clean up after an aborted attempt.
+	 * 
+	 * @return how long to wait before the next attempt, in nanoseconds
+	 */
+	static long aborted(TxInfo txInfo) {
+		AbortCause cause = txInfo.abortCause == null ? AbortCause.EXPLICIT
+				: txInfo.abortCause;
+		if (metrics.isEnabled()) {
+			metrics.aborted(cause, txInfo.conflict);
+		}
+		ContentionInfo info = txInfo.contention;
+		int opened = info.opened;
+		txInfo.abort();
+		info.aborted();
+		int aborts = irrevocableAborts;
+		int size = irrevocableSize;
+		if (cause == AbortCause.IRREVOCABLE
+				|| aborts > 0 && info.aborts >= aborts
+				|| size > 0 && opened >= size) {
+			info.irrevocable = true;
+		}
+		long delay = txInfo.contentionManager.onAbort(info);
+		// an irrevocable attempt waits for the other writers instead
+		return info.irrevocable ? 0 : delay;
+	}
 }
@@ -0,0 +1,72 @@
+package carlstm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts the values of a {@link TxObject} to bytes and back, so that they
+ * can be written to a {@link RedoLog}. The primitive cells such as
+ * {@link TxLong} need no codec.
+ *
+ * @param <T> type of the values
+ */
+public interface Codec<T> {
+	/**
+	 * Codec for strings, including null.
+	 */
+	Codec<String> STRING = new Codec<String>() {
+		@Override
+		public void write(String value, DataOutput out) throws IOException {
+			out.writeBoolean(value != null);
+			if (value != null) {
+				out.writeUTF(value);
+			}
+		}
+
+		@Override
+		public String read(DataInput in) throws IOException {
+			return in.readBoolean() ? in.readUTF() : null;
+		}
+	};
+
+	/**
+	 * Codec for integers, including null.
+	 */
+	Codec<Integer> INTEGER = new Codec<Integer>() {
+		@Override
+		public void write(Integer value, DataOutput out) throws IOException {
+			out.writeBoolean(value != null);
+			if (value != null) {
+				out.writeInt(value);
+			}
+		}
+
+		@Override
+		public Integer read(DataInput in) throws IOException {
+			return in.readBoolean() ? Integer.valueOf(in.readInt()) : null;
+		}
+	};
+
+	/**
+	 * Codec for longs, including null.
+	 */
+	Codec<Long> LONG = new Codec<Long>() {
+		@Override
+		public void write(Long value, DataOutput out) throws IOException {
+			out.writeBoolean(value != null);
+			if (value != null) {
+				out.writeLong(value);
+			}
+		}
+
+		@Override
+		public Long read(DataInput in) throws IOException {
+			return in.readBoolean() ? Long.valueOf(in.readLong()) : null;
+		}
+	};
+
+	public void write(T value, DataOutput out) throws IOException;
+
+	public T read(DataInput in) throws IOException;
+}
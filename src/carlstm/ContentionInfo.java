@@ -0,0 +1,67 @@
+package carlstm;
+
+/**
+ * The contention state of one transaction, as seen by a
+ * {@link ContentionManager}. The state survives aborts, so a policy can give
+ * priority to a transaction that has already done a lot of work or waited a
+ * long time.
+ */
+public final class ContentionInfo {
+	int aborts;
+	long startTime;
+	long karma;
+	int opened;
+	boolean irrevocable;
+
+	/**
+	 * @return the number of times this transaction has aborted
+	 */
+	public int getAborts() {
+		return aborts;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which the first attempt of
+	 *         this transaction started
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the number of objects opened by previous, aborted attempts of
+	 *         this transaction plus those opened by the current attempt
+	 */
+	public long getKarma() {
+		return karma + opened;
+	}
+
+	/**
+	 * @return true if this transaction has been made irrevocable, so that its
+	 *         next attempt runs without writing transactions alongside and
+	 *         cannot lose a conflict
+	 */
+	public boolean isIrrevocable() {
+		return irrevocable;
+	}
+
+	/**
+	 * Reset the state for a new transaction.
+	 */
+	void begin() {
+		aborts = 0;
+		startTime = System.nanoTime();
+		karma = 0;
+		opened = 0;
+		irrevocable = false;
+	}
+
+	/**
+	 * Record an aborted attempt.
+	 */
+	void aborted() {
+		aborts++;
+		karma += opened;
+		opened = 0;
+	}
+}
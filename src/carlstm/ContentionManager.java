@@ -0,0 +1,65 @@
+package carlstm;
+
+/**
+ * A contention manager decides what a transaction does when it runs into
+ * another transaction: how long to wait for an object that is locked by a
+ * committing transaction, and how long to back off after an abort before the
+ * next attempt. Install one for all transactions with
+ * {@link CarlSTM#setContentionManager(ContentionManager)} or pass one to
+ * {@link CarlSTM#execute(Transaction, ContentionManager)} for a single
+ * transaction.
+ * <p>
+ * A single contention manager is shared by every thread that uses it, so any
+ * per-transaction state must be kept in the {@link ContentionInfo} that is
+ * handed to each method.
+ */
+public interface ContentionManager {
+	/**
+	 * Called at the start of every attempt of a transaction.
+	 *
+	 * @param info contention state of the transaction
+	 */
+	public void onStart(ContentionInfo info);
+
+	/**
+	 * Called when the transaction finds an object locked by a committing
+	 * transaction. Returning true makes the transaction look at the object
+	 * again, so a manager that returns true should pause for a moment first;
+	 * returning false aborts the attempt.
+	 *
+	 * @param info contention state of the transaction
+	 * @param spins number of times the transaction has already waited for this
+	 *            object
+	 * @return true to keep waiting, false to abort
+	 */
+	public boolean shouldWait(ContentionInfo info, int spins);
+
+	/**
+	 * Called after an attempt aborts and before the next attempt starts. The
+	 * manager does not wait itself; it returns how long to back off, and the
+	 * caller either pauses the thread ({@link CarlSTM#execute}) or schedules
+	 * the next attempt for later ({@link CarlSTM#executeAsync}).
+	 *
+	 * @param info contention state of the transaction
+	 * @return delay before the next attempt, in nanoseconds
+	 */
+	public long onAbort(ContentionInfo info);
+
+	/**
+	 * Called once the transaction has committed.
+	 *
+	 * @param info contention state of the transaction
+	 */
+	public void onCommit(ContentionInfo info);
+
+	/**
+	 * Called once the transaction is over, however it ended: after
+	 * {@link #onCommit} if it committed, and also if it threw an exception
+	 * or its asynchronous execution was given up. A manager that keeps
+	 * shared state about running transactions must drop it here.
+	 *
+	 * @param info contention state of the transaction
+	 */
+	public default void onFinish(ContentionInfo info) {
+	}
+}
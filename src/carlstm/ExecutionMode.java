@@ -0,0 +1,33 @@
+package carlstm;
+
+/**
+ * How a writing transaction handles its writes. Set the default for all
+ * transactions with {@link CarlSTM#setExecutionMode(ExecutionMode)} or pick
+ * one for a single transaction with
+ * {@link CarlSTM#execute(Transaction, ExecutionMode)}. Read-only transactions
+ * never write, so the mode makes no difference to them.
+ */
+public enum ExecutionMode {
+	/**
+	 * Buffer writes in the log and lock the written objects only while
+	 * committing. Conflicts with other writers are found at commit, but an
+	 * object is never locked for longer than a commit takes.
+	 */
+	LAZY,
+	/**
+	 * Lock an object at its first write, update it in place and keep its old
+	 * value in the log to restore on abort. A write that conflicts with
+	 * another writer aborts at once instead of after the rest of the
+	 * transaction has run, and reading an object the transaction wrote reads
+	 * the object itself. The locks are held until the transaction ends, so
+	 * this suits short transactions that write much of what they read.
+	 * <p>
+	 * The old values are kept per transaction, not per nested transaction or
+	 * {@link CarlSTM#orElse} alternative: when only part of an eager
+	 * transaction would have to be undone, the whole attempt aborts and the
+	 * transaction runs again in lazy mode. Eager mode is not available with
+	 * striped ownership records, where transactions always run lazily, and
+	 * {@link CarlSTM#executeBatch} always commits its groups lazily.
+	 */
+	EAGER
+}
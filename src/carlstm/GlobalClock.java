@@ -0,0 +1,34 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The global version clock shared by all transactions. A transaction samples
+ * the clock when it starts (its read version) and advances it once per
+ * successful writing commit (its write version). Every {@link TxObject}
+ * remembers the write version of the last commit that updated it, so a reader
+ * can detect a concurrent update by comparing two integers instead of
+ * comparing values.
+ */
+final class GlobalClock {
+	private static final AtomicLong clock = new AtomicLong(0);
+
+	private GlobalClock() {
+	}
+
+	/**
+	 * @return the current value of the clock
+	 */
+	static long now() {
+		return clock.get();
+	}
+
+	/**
+	 * Advance the clock for a committing transaction.
+	 *
+	 * @return the write version to stamp on the committed objects
+	 */
+	static long tick() {
+		return clock.incrementAndGet();
+	}
+}
@@ -0,0 +1,85 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The Greedy policy, which orders transactions by the time their first attempt
+ * started. The oldest transaction that has aborted becomes the leader: it
+ * waits for locked objects as long as it takes and retries immediately, while
+ * younger transactions back off exponentially after an abort as long as an
+ * older leader is pending. Every transaction eventually becomes the oldest,
+ * and so the leader, which keeps long transactions from starving.
+ */
+public class GreedyContentionManager implements ContentionManager {
+	private static final int WAIT_SPINS = 16;
+
+	private final AtomicReference<ContentionInfo> leader =
+			new AtomicReference<ContentionInfo>();
+	private final long pauseDelay;
+	private final long maxWait;
+
+	/**
+	 * Create a manager whose younger transactions back off between 1
+	 * microsecond and 10 milliseconds while a leader is pending.
+	 */
+	public GreedyContentionManager() {
+		this(1000, 10000000);
+	}
+
+	/**
+	 * @param pauseDelay bound on the first back-off of a younger transaction,
+	 *            in nanoseconds
+	 * @param maxWait largest bound on the back-off of a younger transaction,
+	 *            in nanoseconds
+	 */
+	public GreedyContentionManager(long pauseDelay, long maxWait) {
+		if (pauseDelay <= 0 || maxWait < pauseDelay) {
+			throw new IllegalArgumentException();
+		}
+		this.pauseDelay = pauseDelay;
+		this.maxWait = maxWait;
+	}
+
+	@Override
+	public void onStart(ContentionInfo info) {
+	}
+
+	@Override
+	public boolean shouldWait(ContentionInfo info, int spins) {
+		if (leader.get() != info && spins >= WAIT_SPINS) {
+			return false;
+		}
+		Thread.yield();
+		return true;
+	}
+
+	@Override
+	public long onAbort(ContentionInfo info) {
+		while (true) {
+			ContentionInfo current = leader.get();
+			if (current == info) {
+				return 0;
+			}
+			if (current == null || current.getStartTime() - info.getStartTime() > 0) {
+				if (leader.compareAndSet(current, info)) {
+					return 0;
+				}
+				continue;
+			}
+			// an older transaction is pending: stay out of its way
+			return Backoff.randomBelow(Backoff.exponential(pauseDelay, maxWait,
+					info.getAborts() - 1));
+		}
+	}
+
+	@Override
+	public void onCommit(ContentionInfo info) {
+	}
+
+	@Override
+	public void onFinish(ContentionInfo info) {
+		// also reached when the leader threw, so that a transaction that
+		// will never commit does not hold back the others for good
+		leader.compareAndSet(info, null);
+	}
+}
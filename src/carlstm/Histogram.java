@@ -0,0 +1,86 @@
+package carlstm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative values with one bucket per power of
+ * two. Recording a value is a single striped counter increment, so many
+ * threads can record without contending; the price is that percentiles are
+ * only accurate to within a factor of two.
+ */
+public final class Histogram {
+	private static final int BUCKETS = 64;
+
+	/** Bucket i counts values v with 2^(i-1) &lt;= v &lt; 2^i; bucket 0 counts 0. */
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		sum.add(value);
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += buckets[i].sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the mean of the recorded values, or 0 if there are none
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * @param percentile a number between 0 and 100
+	 * @return an upper bound on the given percentile of the recorded values,
+	 *         or 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException();
+		}
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i].reset();
+		}
+		sum.reset();
+	}
+}
@@ -0,0 +1,138 @@
+package carlstm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The gate that lets one transaction at a time run irrevocably. Every thread
+ * raises a flag in its TxInfo while it runs an attempt that may write. An
+ * irrevocable attempt closes the gate, which keeps new writing attempts from
+ * starting, and then waits for the flags of the running ones to drop. From
+ * then until it opens the gate again, no other transaction holds a lock or
+ * commits, so the irrevocable attempt can neither find a locked object nor a
+ * newer version, and its commit cannot fail. Read-only transactions never
+ * pass the gate and keep running alongside it.
+ * <p>
+ * A writing attempt raises its flag before it checks the gate, and the
+ * irrevocable attempt closes the gate before it checks the flags, so at
+ * least one of the two sees the other.
+ */
+final class Irrevocable {
+	/**
+	 * A registered TxInfo. It is queued once its thread is gone and the
+	 * TxInfo has been collected, and dropped from the registry by the next
+	 * registration or irrevocable attempt.
+	 */
+	private static final class Registration extends WeakReference<TxInfo> {
+		Registration(TxInfo txInfo) {
+			super(txInfo, collected);
+		}
+	}
+
+	private static final ReferenceQueue<TxInfo> collected =
+			new ReferenceQueue<TxInfo>();
+	private static final Set<Registration> threads =
+			ConcurrentHashMap.<Registration>newKeySet();
+	/** Held by the irrevocable attempt, so only one runs at a time. */
+	private static final ReentrantLock serial = new ReentrantLock();
+	private static final Object gate = new Object();
+	private static volatile boolean closed;
+
+	private Irrevocable() {
+	}
+
+	/**
+	 * Make the flag of a new TxInfo visible to irrevocable attempts for as
+	 * long as its thread is alive.
+	 */
+	static void register(TxInfo txInfo) {
+		expunge();
+		threads.add(new Registration(txInfo));
+	}
+
+	/**
+	 * @return the number of registered TxInfos, counting collected ones that
+	 *         have not been dropped yet
+	 */
+	static int registered() {
+		return threads.size();
+	}
+
+	private static void expunge() {
+		Reference<? extends TxInfo> ref;
+		while ((ref = collected.poll()) != null) {
+			threads.remove(ref);
+		}
+	}
+
+	/**
+	 * Announce the start of a writing attempt, waiting while an irrevocable
+	 * one runs.
+	 */
+	static void enter(TxInfo txInfo) {
+		txInfo.writing = true;
+		while (closed) {
+			txInfo.writing = false;
+			awaitOpen();
+			txInfo.writing = true;
+		}
+	}
+
+	static void exit(TxInfo txInfo) {
+		txInfo.writing = false;
+	}
+
+	/**
+	 * Close the gate for an irrevocable attempt of the calling thread and
+	 * wait until no other writing attempt runs.
+	 */
+	static void begin(TxInfo self) {
+		serial.lock();
+		self.irrevocable = true;
+		closed = true;
+		expunge();
+		for (Registration ref : threads) {
+			TxInfo txInfo = ref.get();
+			if (txInfo == null) {
+				continue;
+			}
+			// writing attempts are short next to one that had to become
+			// irrevocable, so just yield until each one is done
+			while (txInfo != self && txInfo.writing) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Open the gate again after an irrevocable attempt.
+	 */
+	static void end(TxInfo self) {
+		self.irrevocable = false;
+		synchronized (gate) {
+			closed = false;
+			gate.notifyAll();
+		}
+		serial.unlock();
+	}
+
+	private static void awaitOpen() {
+		boolean interrupted = false;
+		synchronized (gate) {
+			while (closed) {
+				try {
+					gate.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package carlstm;
+
+/**
+ * The Karma policy. A transaction's priority is the number of objects it has
+ * opened, summed over all of its aborted attempts, so a transaction that has
+ * lost a lot of work is willing to wait longer for a locked object instead of
+ * aborting again. Aborted transactions keep their karma and retry right away.
+ */
+public class KarmaContentionManager implements ContentionManager {
+	private final long pauseDelay;
+
+	/**
+	 * Create a manager that pauses for 200 nanoseconds per unit of karma.
+	 */
+	public KarmaContentionManager() {
+		this(200);
+	}
+
+	/**
+	 * @param pauseDelay length of each pause while waiting for a locked
+	 *            object, in nanoseconds
+	 */
+	public KarmaContentionManager(long pauseDelay) {
+		if (pauseDelay <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.pauseDelay = pauseDelay;
+	}
+
+	@Override
+	public void onStart(ContentionInfo info) {
+	}
+
+	@Override
+	public boolean shouldWait(ContentionInfo info, int spins) {
+		if (spins > info.getKarma() + info.getAborts()) {
+			return false;
+		}
+		Backoff.pause(pauseDelay);
+		return true;
+	}
+
+	@Override
+	public long onAbort(ContentionInfo info) {
+		return 0;
+	}
+
+	@Override
+	public void onCommit(ContentionInfo info) {
+	}
+}
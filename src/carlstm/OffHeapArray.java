@@ -0,0 +1,298 @@
+package carlstm;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Common part of the transactional primitive arrays such as
+ * {@link TxLongArray}. The elements live outside the Java heap in one direct
+ * buffer. They are grouped into chunks of a power-of-two size, and each chunk
+ * is a {@link TxCell} with its own lock word, so the only heap objects are
+ * the chunks, allocated once with the array. A transaction logs whole chunks:
+ * reading any element of a chunk puts the chunk in its read set, and writing
+ * one buffers the new value in the chunk's log slot until commit. Two
+ * transactions therefore conflict when they touch the same chunk, even at
+ * different elements; a chunk size of one gives every element its own
+ * version.
+ * <p>
+ * Chunks are always written lazily, like the stripes of a
+ * {@link TxCounter}, even inside an eager transaction.
+ */
+abstract class OffHeapArray {
+	/** Default number of elements per chunk. */
+	static final int DEFAULT_CHUNK_SIZE = 64;
+
+	/**
+	 * The writes a transaction buffered for one chunk: new values as raw
+	 * bits and a bit set of the elements written.
+	 */
+	private static final class Pending {
+		final long[] bits;
+		final long[] written;
+		/** Value of {@link TxLog#savepoints} when this buffer was made. */
+		int savepoint;
+
+		Pending(int chunkSize, int savepoint) {
+			this.bits = new long[chunkSize];
+			this.written = new long[(chunkSize + 63) >>> 6];
+			this.savepoint = savepoint;
+		}
+
+		Pending(Pending other, int savepoint) {
+			this.bits = other.bits.clone();
+			this.written = other.written.clone();
+			this.savepoint = savepoint;
+		}
+
+		boolean has(int offset) {
+			return (written[offset >>> 6] & (1L << offset)) != 0;
+		}
+
+		void put(int offset, long bits) {
+			this.bits[offset] = bits;
+			written[offset >>> 6] |= 1L << offset;
+		}
+	}
+
+	/**
+	 * One chunk of elements and the lock word guarding them.
+	 */
+	private static final class Chunk extends TxCell {
+		final OffHeapArray array;
+		/** Index of the first element of the chunk. */
+		final int first;
+
+		Chunk(OffHeapArray array, int first) {
+			this.array = array;
+			this.first = first;
+		}
+
+		@Override
+		void publish(TxLog log, int slot, long version) {
+			Pending pending = (Pending) log.values[slot];
+			int end = Math.min(array.chunkSize, array.length - first);
+			for (int offset = 0; offset < end; offset++) {
+				if (pending.has(offset)) {
+					array.store(first + offset, pending.bits[offset]);
+				}
+			}
+		}
+
+		// chunks are never written in place, so these only have to agree
+		// with each other
+		@Override
+		void save(TxLog log, int slot) {
+			Pending pending = new Pending(array.chunkSize, 0);
+			int end = Math.min(array.chunkSize, array.length - first);
+			for (int offset = 0; offset < end; offset++) {
+				pending.put(offset, array.load(first + offset));
+			}
+			log.values[slot] = pending;
+		}
+
+		@Override
+		void store(Object value, long bits) {
+			Pending pending = (Pending) value;
+			int end = Math.min(array.chunkSize, array.length - first);
+			for (int offset = 0; offset < end; offset++) {
+				array.store(first + offset, pending.bits[offset]);
+			}
+		}
+	}
+
+	/** The elements, in native byte order. */
+	final ByteBuffer memory;
+	private final int length;
+	private final int chunkSize;
+	private final int shift;
+	private final Chunk[] chunks;
+
+	/**
+	 * @param length number of elements
+	 * @param elementSize size of an element in bytes
+	 * @param chunkSize number of elements per chunk; rounded up to a power of
+	 *            two
+	 */
+	OffHeapArray(int length, int elementSize, int chunkSize) {
+		if (length < 0 || chunkSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		if ((long) length * elementSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("array larger than 2 GB");
+		}
+		int shift = 0;
+		while ((1 << shift) < chunkSize && shift < 30) {
+			shift++;
+		}
+		this.memory = ByteBuffer.allocateDirect(length * elementSize)
+				.order(ByteOrder.nativeOrder());
+		this.length = length;
+		this.chunkSize = 1 << shift;
+		this.shift = shift;
+		this.chunks = new Chunk[(int) (((long) length + this.chunkSize - 1) >>> shift)];
+		for (int n = 0; n < chunks.length; n++) {
+			chunks[n] = new Chunk(this, n << shift);
+		}
+	}
+
+	/**
+	 * @return the committed value of an element as raw bits
+	 */
+	abstract long load(int index);
+
+	/**
+	 * Set the committed value of an element from raw bits.
+	 */
+	abstract void store(int index, long bits);
+
+	/**
+	 * Copy committed elements into a Java array.
+	 */
+	abstract void copy(int index, Object dst, int offset, int length);
+
+	/**
+	 * Set one element of a Java array from raw bits.
+	 */
+	abstract void overlay(Object dst, int offset, long bits);
+
+	/**
+	 * @return the number of elements
+	 */
+	public final int length() {
+		return length;
+	}
+
+	/**
+	 * @return the number of elements that share a version
+	 */
+	public final int chunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return the raw bits of an element as seen by the current transaction
+	 */
+	final long getBits(int index) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		checkIndex(index);
+		TxInfo txInfo = TxInfo.current();
+		Chunk chunk = chunks[index >>> shift];
+		int offset = index & (chunkSize - 1);
+		int slot = chunk.logged(txInfo);
+		if (slot >= 0) {
+			Pending pending = (Pending) txInfo.log.values[slot];
+			if (pending != null && pending.has(offset)) {
+				return pending.bits[offset];
+			}
+		}
+		// read the committed value even if the chunk is in the read set,
+		// since another element of it may be all the transaction read so far
+		long pre = chunk.beginRead(txInfo);
+		long result = load(index);
+		// the elements are plain memory, so keep the load before the
+		// second look at the lock word
+		VarHandle.loadLoadFence();
+		chunk.endRead(txInfo, pre);
+		logRead(txInfo, chunk);
+		return result;
+	}
+
+	/**
+	 * Copy a range of elements as seen by the current transaction into a
+	 * Java array, reading each chunk in one go.
+	 */
+	final void getRange(int index, Object dst, int offset, int count)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		if (count < 0 || index < 0 || index > length - count) {
+			throw new IndexOutOfBoundsException();
+		}
+		TxInfo txInfo = TxInfo.current();
+		while (count > 0) {
+			Chunk chunk = chunks[index >>> shift];
+			int start = index & (chunkSize - 1);
+			int n = Math.min(count, chunkSize - start);
+			long pre = chunk.beginRead(txInfo);
+			copy(index, dst, offset, n);
+			VarHandle.loadLoadFence();
+			chunk.endRead(txInfo, pre);
+			Pending pending = logRead(txInfo, chunk);
+			if (pending != null) {
+				for (int k = 0; k < n; k++) {
+					if (pending.has(start + k)) {
+						overlay(dst, offset + k, pending.bits[start + k]);
+					}
+				}
+			}
+			index += n;
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Buffer a write of raw bits to an element until the current transaction
+	 * commits.
+	 */
+	final void setBits(int index, long bits) throws NoActiveTransactionException {
+		checkIndex(index);
+		TxInfo txInfo = TxInfo.current();
+		if (txInfo.readOnly) {
+			throw new ReadOnlyTransactionException();
+		}
+		Chunk chunk = chunks[index >>> shift];
+		int offset = index & (chunkSize - 1);
+		TxLog log = txInfo.log;
+		int slot = log.find(chunk);
+		if (slot < 0) {
+			Pending pending = new Pending(chunkSize, log.savepoints);
+			pending.put(offset, bits);
+			log.insert(chunk, pending, 0, TxLog.WRITTEN);
+			txInfo.contention.opened++;
+			return;
+		}
+		Pending pending = (Pending) log.values[slot];
+		if (pending != null && (log.depth == 0 || pending.savepoint == log.savepoints)) {
+			// no savepoint has been opened since the buffer was made, so no
+			// undo entry refers to it; a bulk fill must not copy it each time
+			pending.put(offset, bits);
+			return;
+		}
+		log.beforeUpdate(slot);
+		if (pending == null) {
+			pending = new Pending(chunkSize, log.savepoints);
+		} else {
+			// the undo stack holds the old buffer, so it must not change
+			pending = new Pending(pending, log.savepoints);
+		}
+		pending.put(offset, bits);
+		log.values[slot] = pending;
+		log.flags[slot] |= TxLog.WRITTEN;
+	}
+
+	/**
+	 * Put a chunk that was just read successfully into the read set of a
+	 * writing transaction.
+	 *
+	 * @return the writes the transaction buffered for the chunk, or null
+	 */
+	private static Pending logRead(TxInfo txInfo, Chunk chunk) {
+		int slot = chunk.logged(txInfo);
+		if (slot < 0) {
+			chunk.logRead(txInfo, null, 0);
+			return null;
+		}
+		TxLog log = txInfo.log;
+		if ((log.flags[slot] & TxLog.READ) == 0) {
+			log.beforeUpdate(slot);
+			log.flags[slot] |= TxLog.READ;
+		}
+		return (Pending) log.values[slot];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+		}
+	}
+}
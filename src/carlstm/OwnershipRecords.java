@@ -0,0 +1,71 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The optional striped table of ownership records. By default every cell
+ * carries its own versioned lock word. If the system property
+ * {@value #PROPERTY} is set to a positive stripe count when the STM is first
+ * used, the lock words live in one shared table instead, rounded up to a
+ * power of two, and each cell is guarded by the record its identity hash
+ * maps to. Cells that share a record conflict with each other, so a smaller
+ * table means more false conflicts; a larger one costs eight bytes per
+ * stripe whether or not a cell uses it.
+ * <p>
+ * The mode cannot change while the program runs: two transactions that
+ * disagreed about where a cell's lock word lives could both commit to it.
+ */
+final class OwnershipRecords {
+	static final String PROPERTY = "carlstm.ownershipRecords";
+
+	/** True if the lock words live in the shared table. */
+	static final boolean STRIPED;
+	private static final int MASK;
+	private static final AtomicLongArray records;
+
+	static {
+		int stripes = Integer.getInteger(PROPERTY, 0);
+		if (stripes > 0) {
+			int size = 1;
+			while (size < stripes && size < (1 << 30)) {
+				size <<= 1;
+			}
+			STRIPED = true;
+			MASK = size - 1;
+			records = new AtomicLongArray(size);
+		} else {
+			STRIPED = false;
+			MASK = 0;
+			records = null;
+		}
+	}
+
+	private OwnershipRecords() {
+	}
+
+	/**
+	 * @return the number of stripes, or 0 if every cell has its own lock word
+	 */
+	static int stripes() {
+		return STRIPED ? MASK + 1 : 0;
+	}
+
+	/**
+	 * @return the index of the record guarding a cell
+	 */
+	static int index(TxCell cell) {
+		return cell.hash() & MASK;
+	}
+
+	static long get(TxCell cell) {
+		return records.get(index(cell));
+	}
+
+	static boolean compareAndSet(TxCell cell, long expect, long update) {
+		return records.compareAndSet(index(cell), expect, update);
+	}
+
+	static void set(TxCell cell, long word) {
+		records.set(index(cell), word);
+	}
+}
@@ -0,0 +1,54 @@
+package carlstm;
+
+/**
+ * The Polite policy. A transaction that finds an object locked waits for it
+ * with exponentially growing pauses, and only aborts itself after a fixed
+ * number of rounds. After an abort it retries almost immediately, since it
+ * already gave the other transaction time to finish.
+ */
+public class PoliteContentionManager implements ContentionManager {
+	private final int rounds;
+	private final long baseDelay;
+
+	/**
+	 * Create a manager that waits for 8 rounds starting at 500 nanoseconds.
+	 */
+	public PoliteContentionManager() {
+		this(8, 500);
+	}
+
+	/**
+	 * @param rounds number of times to wait for a locked object before
+	 *            aborting
+	 * @param baseDelay length of the first pause, in nanoseconds
+	 */
+	public PoliteContentionManager(int rounds, long baseDelay) {
+		if (rounds < 0 || baseDelay <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.rounds = rounds;
+		this.baseDelay = baseDelay;
+	}
+
+	@Override
+	public void onStart(ContentionInfo info) {
+	}
+
+	@Override
+	public boolean shouldWait(ContentionInfo info, int spins) {
+		if (spins >= rounds) {
+			return false;
+		}
+		Backoff.pause(Backoff.exponential(baseDelay, Long.MAX_VALUE, spins));
+		return true;
+	}
+
+	@Override
+	public long onAbort(ContentionInfo info) {
+		return Backoff.randomBelow(baseDelay);
+	}
+
+	@Override
+	public void onCommit(ContentionInfo info) {
+	}
+}
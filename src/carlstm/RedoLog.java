@@ -0,0 +1,713 @@
+package carlstm;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An optional write-ahead redo log that makes commits to registered cells
+ * survive a restart. Open the log, register every cell that should be
+ * durable under an id that stays the same from run to run, and install the
+ * log:
+ *
+ * <pre>
+ * RedoLog log = RedoLog.open(Paths.get("data"));
+ * TxLong balance = log.register(1, new TxLong(0));
+ * TxObject&lt;String&gt; owner = log.register(2, new TxObject&lt;String&gt;(null), Codec.STRING);
+ * CarlSTM.setRedoLog(log);
+ * </pre>
+ *
+ * Registering a cell gives it the last value committed to it before the
+ * restart, so register cells before any transaction uses them.
+ * <p>
+ * Every commit that writes a registered cell appends one record with the new
+ * values of its registered cells to a memory-mapped segment file, while it
+ * still holds the locks on them, so the records of two commits to the same
+ * cell are in commit order. After releasing its locks the committing thread
+ * waits until the segment has been forced to disk. Only one thread forces at
+ * a time, and a force covers every record appended before it started, so
+ * the commits that pile up during one force all share the next one. Commits
+ * that write no registered cell do not touch the log.
+ * <p>
+ * Recovery replays the segments in order and stops at the first torn or
+ * corrupt record. A new segment is started on every open and whenever the
+ * current one is full.
+ * <p>
+ * {@link #checkpoint()} bounds the replay. It writes the committed value of
+ * every registered cell to a checkpoint file and deletes the segments the
+ * file makes redundant, so the next open only replays the segments written
+ * since. The checkpoint file is memory-mapped on open and a value is only
+ * decoded when its cell is registered, which makes opening a log with a
+ * recent checkpoint about as fast as opening the file.
+ */
+public final class RedoLog {
+	/** Default size of a segment file. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	private static final String PREFIX = "redo-";
+	private static final String SUFFIX = ".log";
+	private static final String CHECKPOINT_PREFIX = "checkpoint-";
+	private static final String CHECKPOINT_SUFFIX = ".ckp";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	/** Last word of a complete checkpoint file. */
+	private static final int CHECKPOINT_MAGIC = 0x43534b50;
+	/** Checkpoint footer: entry count, index position and magic word. */
+	private static final int FOOTER = 12;
+	/** Checkpoint index entry: id, value position and value length. */
+	private static final int ENTRY = 16;
+	/** Record header: payload length and CRC-32 of the payload. */
+	private static final int HEADER = 8;
+
+	/** The log commits append to, or null if durability is off. */
+	static volatile RedoLog installed;
+
+	/**
+	 * How to write one registered cell.
+	 */
+	private static final class Registration {
+		final long id;
+		/** Codec for a TxObject; null for a primitive cell. */
+		final Codec<Object> codec;
+
+		Registration(long id, Codec<Object> codec) {
+			this.id = id;
+			this.codec = codec;
+		}
+	}
+
+	/**
+	 * A reusable buffer for encoding one record.
+	 */
+	private static final class Scratch extends ByteArrayOutputStream {
+		final DataOutputStream data = new DataOutputStream(this);
+
+		void putInt(int position, int value) {
+			buf[position] = (byte) (value >>> 24);
+			buf[position + 1] = (byte) (value >>> 16);
+			buf[position + 2] = (byte) (value >>> 8);
+			buf[position + 3] = (byte) value;
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
+	/**
+	 * A checkpoint file mapped for reading. The values come first, followed
+	 * by an index of the ids in ascending order and the footer.
+	 */
+	private static final class Checkpoint {
+		final MappedByteBuffer buffer;
+		final int count;
+		final int index;
+
+		Checkpoint(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				if (size < FOOTER || size > Integer.MAX_VALUE) {
+					throw new IOException("not a checkpoint file: " + path);
+				}
+				// the mapping stays valid after the channel is closed
+				this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			int footer = buffer.limit() - FOOTER;
+			this.count = buffer.getInt(footer);
+			this.index = buffer.getInt(footer + 4);
+			if (buffer.getInt(footer + 8) != CHECKPOINT_MAGIC || count < 0
+					|| index < 0 || (long) index + (long) count * ENTRY != footer) {
+				throw new IOException("not a checkpoint file: " + path);
+			}
+		}
+
+		long id(int n) {
+			return buffer.getLong(index + n * ENTRY);
+		}
+
+		byte[] value(int n) {
+			int entry = index + n * ENTRY;
+			byte[] value = new byte[buffer.getInt(entry + 12)];
+			ByteBuffer view = buffer.duplicate();
+			view.position(buffer.getInt(entry + 8));
+			view.get(value);
+			return value;
+		}
+
+		/**
+		 * @return the entry of an id, or -1 if the checkpoint does not hold it
+		 */
+		int find(long id) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long found = id(mid);
+				if (found < id) {
+					low = mid + 1;
+				} else if (found > id) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * One mapped segment file.
+	 */
+	private static final class Segment {
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		/** Logical offset of the first byte of this segment. */
+		final long base;
+
+		Segment(Path path, int size, long base) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			this.base = base;
+		}
+	}
+
+	private final Path directory;
+	private final int segmentSize;
+	private final ConcurrentHashMap<TxCell, Registration> cells =
+			new ConcurrentHashMap<TxCell, Registration>();
+	private final ConcurrentHashMap<Long, TxCell> ids =
+			new ConcurrentHashMap<Long, TxCell>();
+	/**
+	 * Last value replayed from the segments for each id that has not been
+	 * registered yet. Also guards {@link #checkpoint} and registration.
+	 */
+	private final Map<Long, byte[]> recovered = new HashMap<Long, byte[]>();
+	/** The latest checkpoint, or null if there is none. */
+	private Checkpoint checkpoint;
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/** Guards appends and the switch to a new segment. */
+	private final Object appendLock = new Object();
+	/** Held by the one thread that forces the log. */
+	private final Object flushLock = new Object();
+	/** Held by the one thread that writes a checkpoint. */
+	private final Object checkpointLock = new Object();
+	private Segment current;
+	private int nextSequence;
+	/** Logical offset just past the last appended record. */
+	private volatile long written;
+	/** Logical offset up to which every record is on disk. */
+	private volatile long durable;
+	private boolean closed;
+
+	private RedoLog(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Open the redo log in a directory, with segments of the default size.
+	 *
+	 * @see #open(Path, int)
+	 */
+	public static RedoLog open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Open the redo log in a directory, creating the directory if needed, and
+	 * read back the values committed by earlier runs.
+	 *
+	 * @param directory directory holding the segment files
+	 * @param segmentSize size of each new segment file in bytes
+	 */
+	public static RedoLog open(Path directory, int segmentSize)
+			throws IOException {
+		if (segmentSize < 4096) {
+			throw new IllegalArgumentException("segment too small");
+		}
+		Files.createDirectories(directory);
+		RedoLog log = new RedoLog(directory, segmentSize);
+		// a checkpoint that was being written when the process stopped
+		for (Path path : files(directory, CHECKPOINT_PREFIX, TEMPORARY_SUFFIX)) {
+			Files.delete(path);
+		}
+		List<Path> checkpoints = files(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+		int first = 0;
+		if (!checkpoints.isEmpty()) {
+			Path latest = checkpoints.get(checkpoints.size() - 1);
+			first = sequence(latest, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+			log.checkpoint = new Checkpoint(latest);
+			log.nextSequence = first;
+		}
+		for (Path path : files(directory, PREFIX, SUFFIX)) {
+			int sequence = sequence(path, PREFIX, SUFFIX);
+			if (sequence < first) {
+				// left over from a checkpoint that did not finish its cleanup
+				continue;
+			}
+			log.replay(path);
+			log.nextSequence = Math.max(log.nextSequence, sequence + 1);
+		}
+		log.deleteBefore(first);
+		log.current = log.newSegment(0);
+		return log;
+	}
+
+	/**
+	 * @return the files of a directory with a sequence number between a
+	 *         prefix and a suffix, in the order they were written
+	 */
+	private static List<Path> files(Path directory, String prefix, String suffix)
+			throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				prefix + "*" + suffix)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		// the sequence number is zero-padded, so names sort numerically
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private static int sequence(Path path, String prefix, String suffix) {
+		String name = path.getFileName().toString();
+		return Integer.parseInt(name.substring(prefix.length(),
+				name.length() - suffix.length()));
+	}
+
+	/**
+	 * Delete the segments and checkpoints older than a segment sequence
+	 * number.
+	 */
+	private void deleteBefore(int sequence) throws IOException {
+		for (Path path : files(directory, PREFIX, SUFFIX)) {
+			if (sequence(path, PREFIX, SUFFIX) < sequence) {
+				Files.delete(path);
+			}
+		}
+		for (Path path : files(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+			if (sequence(path, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX) < sequence) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private Segment newSegment(long base) throws IOException {
+		Path path = directory.resolve(String.format("%s%010d%s", PREFIX,
+				nextSequence++, SUFFIX));
+		return new Segment(path, segmentSize, base);
+	}
+
+	/**
+	 * Read the records of one segment, keeping the last value of each id.
+	 */
+	private void replay(Path path) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= HEADER) {
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				break;
+			}
+			crc.reset();
+			crc.update(bytes, buffer.position(), length);
+			if ((int) crc.getValue() != checksum) {
+				// a record torn by a crash; nothing after it was acknowledged
+				break;
+			}
+			int end = buffer.position() + length;
+			int count = buffer.getInt();
+			for (int n = 0; n < count; n++) {
+				long id = buffer.getLong();
+				byte[] value = new byte[buffer.getInt()];
+				buffer.get(value);
+				recovered.put(id, value);
+			}
+			buffer.position(end);
+		}
+	}
+
+	/**
+	 * Make a cell durable under an id, restoring its last logged value.
+	 *
+	 * @return the cell
+	 */
+	public TxInt register(long id, TxInt cell) {
+		enroll(id, cell, null);
+		return cell;
+	}
+
+	/**
+	 * @see #register(long, TxInt)
+	 */
+	public TxLong register(long id, TxLong cell) {
+		enroll(id, cell, null);
+		return cell;
+	}
+
+	/**
+	 * @see #register(long, TxInt)
+	 */
+	public TxDouble register(long id, TxDouble cell) {
+		enroll(id, cell, null);
+		return cell;
+	}
+
+	/**
+	 * @see #register(long, TxInt)
+	 */
+	public TxBoolean register(long id, TxBoolean cell) {
+		enroll(id, cell, null);
+		return cell;
+	}
+
+	/**
+	 * Make an object durable under an id, restoring its last logged value.
+	 *
+	 * @param codec codec for the values of the object
+	 * @return the object
+	 */
+	public <T> TxObject<T> register(long id, TxObject<T> cell, Codec<T> codec) {
+		if (codec == null) {
+			throw new NullPointerException();
+		}
+		enroll(id, cell, codec);
+		return cell;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void enroll(long id, TxCell cell, Codec<?> codec) {
+		// a checkpoint takes the registered ids under the same lock, so it
+		// either sees the cell restored and in cells, or not at all
+		synchronized (recovered) {
+			if (ids.containsKey(id)) {
+				throw new IllegalArgumentException("id " + id + " is already registered");
+			}
+			byte[] value = recovered.get(id);
+			if (value == null && checkpoint != null) {
+				int entry = checkpoint.find(id);
+				if (entry >= 0) {
+					value = checkpoint.value(entry);
+				}
+			}
+			if (value != null) {
+				// decode before changing anything, so a codec that fails
+				// leaves the value to a later registration
+				try {
+					DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+					if (codec == null) {
+						cell.store(null, in.readLong());
+					} else {
+						cell.store(codec.read(in), 0);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			cells.put(cell, new Registration(id, (Codec<Object>) codec));
+			ids.put(id, cell);
+			recovered.remove(id);
+		}
+	}
+
+	/**
+	 * Append a record with the committed values of the registered cells in a
+	 * write set. Called by a commit that has published its values and still
+	 * holds the locks.
+	 *
+	 * @return the logical offset to wait for with {@link #awaitDurable}, or
+	 *         -1 if the write set holds no registered cell
+	 */
+	long append(TxLog log, int[] slots, int count) {
+		Scratch out = scratch.get();
+		out.reset();
+		int entries = 0;
+		try {
+			out.data.writeInt(0);
+			for (int n = 0; n < count; n++) {
+				int slot = slots[n];
+				TxCell cell = log.keys[slot];
+				Registration registration = cells.get(cell);
+				if (registration == null) {
+					continue;
+				}
+				// the slot may hold a delta or an undo value; take the
+				// value the commit just published
+				cell.save(log, slot);
+				out.data.writeLong(registration.id);
+				int lengthAt = out.size();
+				out.data.writeInt(0);
+				encode(registration, log, slot, out.data);
+				out.putInt(lengthAt, out.size() - lengthAt - 4);
+				entries++;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (entries == 0) {
+			return -1;
+		}
+		out.putInt(0, entries);
+		int length = out.size();
+		CRC32 crc = new CRC32();
+		crc.update(out.buffer(), 0, length);
+		synchronized (appendLock) {
+			if (closed) {
+				throw new IllegalStateException("redo log is closed");
+			}
+			MappedByteBuffer buffer = current.buffer;
+			if (buffer.remaining() < HEADER + length) {
+				roll(HEADER + length);
+				buffer = current.buffer;
+			}
+			buffer.putInt(length);
+			buffer.putInt((int) crc.getValue());
+			buffer.put(out.buffer(), 0, length);
+			written = current.base + buffer.position();
+			return written;
+		}
+	}
+
+	/**
+	 * Write the value saved in a log slot in the format of a record entry.
+	 */
+	private static void encode(Registration registration, TxLog log, int slot,
+			DataOutputStream out) throws IOException {
+		if (registration.codec == null) {
+			out.writeLong(log.bits[slot]);
+		} else {
+			registration.codec.write(log.values[slot], out);
+		}
+	}
+
+	/**
+	 * Force the full segment and continue in a new one. Called with the
+	 * append lock held.
+	 */
+	private void roll(int needed) {
+		if (needed > segmentSize) {
+			throw new IllegalStateException("redo record of " + needed
+					+ " bytes does not fit in a segment");
+		}
+		Segment full = current;
+		full.buffer.force();
+		try {
+			current = newSegment(full.base + full.buffer.position());
+			full.channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Write a checkpoint of every registered cell and delete the segments and
+	 * the older checkpoint it replaces. Transactions keep running meanwhile:
+	 * the checkpoint starts a new segment and then reads the cells one by
+	 * one, so it may see some commits made during the checkpoint and miss
+	 * others, but every commit it misses is in the new segment or a later
+	 * one, and the next open replays those on top of it. Values restored
+	 * from an earlier run whose cells have not been registered again are
+	 * carried over.
+	 * <p>
+	 * The result is only consistent while the log is installed, since the
+	 * replay must cover every commit made during the checkpoint.
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			int sequence;
+			synchronized (flushLock) {
+				synchronized (appendLock) {
+					if (closed) {
+						throw new IllegalStateException("redo log is closed");
+					}
+					roll(0);
+					durable = written;
+					sequence = nextSequence - 1;
+				}
+			}
+			long[] registered;
+			Map<Long, byte[]> pending;
+			Checkpoint previous;
+			synchronized (recovered) {
+				registered = new long[ids.size()];
+				int n = 0;
+				for (Long id : ids.keySet()) {
+					registered[n++] = id;
+				}
+				pending = new HashMap<Long, byte[]>(recovered);
+				previous = checkpoint;
+			}
+			Path path = writeCheckpoint(sequence, registered, pending, previous);
+			synchronized (recovered) {
+				checkpoint = new Checkpoint(path);
+				// the new checkpoint holds every value replayed so far
+				recovered.keySet().removeAll(pending.keySet());
+			}
+			deleteBefore(sequence);
+		}
+	}
+
+	/**
+	 * Write the checkpoint file, first under a temporary name so that a
+	 * crash never leaves a partial checkpoint behind.
+	 *
+	 * @return the checkpoint file
+	 */
+	private Path writeCheckpoint(int sequence, long[] registered,
+			Map<Long, byte[]> pending, Checkpoint previous) throws IOException {
+		int previousCount = previous == null ? 0 : previous.count;
+		long[] all = Arrays.copyOf(registered, registered.length + pending.size()
+				+ previousCount);
+		int size = registered.length;
+		for (Long id : pending.keySet()) {
+			all[size++] = id;
+		}
+		for (int n = 0; n < previousCount; n++) {
+			all[size++] = previous.id(n);
+		}
+		Arrays.sort(registered);
+		Arrays.sort(all, 0, size);
+		String name = String.format("%s%010d", CHECKPOINT_PREFIX, sequence);
+		Path temporary = directory.resolve(name + TEMPORARY_SUFFIX);
+		Path path = directory.resolve(name + CHECKPOINT_SUFFIX);
+		try (FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			ByteArrayOutputStream index = new ByteArrayOutputStream();
+			DataOutputStream entries = new DataOutputStream(index);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel), 1 << 16));
+			TxLog log = new TxLog();
+			int count = 0;
+			for (int n = 0; n < size; n++) {
+				long id = all[n];
+				if (n > 0 && id == all[n - 1]) {
+					continue;
+				}
+				int position = out.size();
+				byte[] value;
+				if (Arrays.binarySearch(registered, id) >= 0) {
+					TxCell cell = ids.get(id);
+					log.clear();
+					int slot = log.insert(cell, null, 0, TxLog.READ);
+					readCommitted(cell, log, slot);
+					encode(cells.get(cell), log, slot, out);
+				} else if ((value = pending.get(id)) != null) {
+					out.write(value);
+				} else {
+					out.write(previous.value(previous.find(id)));
+				}
+				entries.writeLong(id);
+				entries.writeInt(position);
+				entries.writeInt(out.size() - position);
+				count++;
+			}
+			int indexPosition = out.size();
+			index.writeTo(out);
+			out.writeInt(count);
+			out.writeInt(indexPosition);
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.flush();
+			// the size saturates once it no longer fits a mapped buffer
+			if (out.size() == Integer.MAX_VALUE) {
+				throw new IOException("checkpoint larger than 2 GB");
+			}
+			channel.force(true);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		return Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Copy the committed value of a cell into a log slot, waiting while a
+	 * commit or an eager transaction holds the cell.
+	 */
+	private static void readCommitted(TxCell cell, TxLog log, int slot) {
+		while (true) {
+			long pre = cell.lockWord();
+			if (!TxCell.isLocked(pre)) {
+				cell.save(log, slot);
+				if (cell.lockWord() == pre) {
+					return;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Wait until the log is on disk up to a logical offset, forcing it unless
+	 * another thread's force already covers the offset.
+	 */
+	void awaitDurable(long offset) {
+		if (durable >= offset) {
+			return;
+		}
+		synchronized (flushLock) {
+			if (durable >= offset) {
+				// forced while we waited for the lock
+				return;
+			}
+			Segment segment;
+			long target;
+			synchronized (appendLock) {
+				segment = current;
+				target = written;
+			}
+			// earlier segments were forced when the log moved on from them
+			segment.buffer.force();
+			durable = target;
+		}
+	}
+
+	/**
+	 * Force the log and close the current segment. Uninstall the log with
+	 * {@link CarlSTM#setRedoLog(RedoLog)} first; commits to registered cells
+	 * fail once it is closed.
+	 */
+	public void close() throws IOException {
+		synchronized (flushLock) {
+			synchronized (appendLock) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				current.buffer.force();
+				durable = written;
+				current.channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package carlstm;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bookkeeping for multi-version mode. While it is on, every commit to a
+ * {@link TxObject} records the value it writes, stamped with its write
+ * version, at the head of a short chain of recent versions, and a read-only
+ * transaction that finds an object updated after it started reads the
+ * version that was current at its start instead of aborting.
+ * <p>
+ * Old versions are reclaimed against a horizon: the oldest read version of
+ * any running read-only transaction. A commit keeps every version newer than
+ * the horizon and the newest one at or below it, and cuts the rest of the
+ * chain. The horizon is recomputed only every {@link #REFRESH} clock ticks;
+ * an out-of-date horizon is older than the real one, so it only keeps a few
+ * versions longer than needed.
+ */
+final class Snapshots {
+	/**
+	 * Number of commits between two scans for the oldest running reader.
+	 */
+	private static final long REFRESH = 64;
+
+	/**
+	 * The read version announced by one thread's read-only transactions.
+	 */
+	static final class Reader {
+		volatile long version = Long.MAX_VALUE;
+	}
+
+	/**
+	 * A value of a {@link TxObject} and the version it was committed with.
+	 * The exact version is recorded because in striped mode the lock word
+	 * may carry a newer version committed to another cell.
+	 */
+	static final class Version {
+		final Object value;
+		final long version;
+		Version next;
+
+		Version(Object value, long version, Version next) {
+			this.value = value;
+			this.version = version;
+			this.next = next;
+		}
+	}
+
+	private static volatile boolean enabled;
+	private static final CopyOnWriteArrayList<WeakReference<Reader>> readers =
+			new CopyOnWriteArrayList<WeakReference<Reader>>();
+	private static volatile long horizon;
+	private static volatile long refreshedAt = -REFRESH;
+
+	private Snapshots() {
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void setEnabled(boolean enabled) {
+		Snapshots.enabled = enabled;
+	}
+
+	/**
+	 * @return a new reader, registered for the horizon scan as long as it is
+	 *         reachable
+	 */
+	static Reader register() {
+		Reader reader = new Reader();
+		readers.add(new WeakReference<Reader>(reader));
+		return reader;
+	}
+
+	/**
+	 * Announce the start of a read-only transaction.
+	 *
+	 * @return the read version of the transaction
+	 */
+	static long enter(Reader reader) {
+		while (true) {
+			long now = GlobalClock.now();
+			reader.version = now;
+			// if the clock did not move while we announced, any horizon scan
+			// that missed us sampled the clock no later than now
+			if (GlobalClock.now() == now) {
+				return now;
+			}
+		}
+	}
+
+	static void exit(Reader reader) {
+		reader.version = Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return a version no newer than the read version of any running or
+	 *         future read-only transaction
+	 */
+	static long horizon() {
+		long now = GlobalClock.now();
+		if (now - refreshedAt < REFRESH) {
+			return horizon;
+		}
+		long oldest = now;
+		for (WeakReference<Reader> ref : readers) {
+			Reader reader = ref.get();
+			if (reader == null) {
+				readers.remove(ref);
+			} else {
+				oldest = Math.min(oldest, reader.version);
+			}
+		}
+		horizon = oldest;
+		refreshedAt = now;
+		return oldest;
+	}
+
+	/**
+	 * Push the value written by a commit onto a chain of versions, dropping
+	 * the versions no reader can see anymore.
+	 *
+	 * @return the new head of the chain
+	 */
+	static Version retain(Object value, long version, Version chain) {
+		Version head = new Version(value, version, chain);
+		long horizon = horizon();
+		for (Version v = head; v != null; v = v.next) {
+			if (v.version <= horizon) {
+				v.next = null;
+				break;
+			}
+		}
+		return head;
+	}
+
+	/**
+	 * @return the newest version in the chain that is not newer than the read
+	 *         version, or null if it has been reclaimed
+	 */
+	static Version find(Version chain, long readVersion) {
+		for (Version v = chain; v != null; v = v.next) {
+			if (v.version <= readVersion) {
+				return v;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,63 @@
+package carlstm;
+
+/**
+ * A policy that retries immediately for the first few aborts and then backs
+ * off for exponentially growing but bounded periods, which are long enough
+ * that a blocking transaction parks its thread instead of spinning, so a
+ * heavily contended transaction stops burning a core.
+ */
+public class SpinParkContentionManager implements ContentionManager {
+	private static final int WAIT_SPINS = 32;
+
+	private final int spinAborts;
+	private final long minPark;
+	private final long maxPark;
+
+	/**
+	 * Create a manager that spins for 4 aborts and then parks between 10
+	 * microseconds and 1 millisecond.
+	 */
+	public SpinParkContentionManager() {
+		this(4, 10000, 1000000);
+	}
+
+	/**
+	 * @param spinAborts number of aborts after which the thread starts parking
+	 * @param minPark first park time, in nanoseconds
+	 * @param maxPark longest park time, in nanoseconds
+	 */
+	public SpinParkContentionManager(int spinAborts, long minPark, long maxPark) {
+		if (spinAborts < 0 || minPark <= 0 || maxPark < minPark) {
+			throw new IllegalArgumentException();
+		}
+		this.spinAborts = spinAborts;
+		this.minPark = minPark;
+		this.maxPark = maxPark;
+	}
+
+	@Override
+	public void onStart(ContentionInfo info) {
+	}
+
+	@Override
+	public boolean shouldWait(ContentionInfo info, int spins) {
+		if (spins >= WAIT_SPINS) {
+			return false;
+		}
+		Thread.yield();
+		return true;
+	}
+
+	@Override
+	public long onAbort(ContentionInfo info) {
+		int aborts = info.getAborts();
+		if (aborts <= spinAborts) {
+			return 0;
+		}
+		return Backoff.exponential(minPark, maxPark, aborts - spinAborts - 1);
+	}
+
+	@Override
+	public void onCommit(ContentionInfo info) {
+	}
+}
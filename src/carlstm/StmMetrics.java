@@ -0,0 +1,406 @@
+package carlstm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing the transactions run by
+ * {@link CarlSTM}. All counters are striped, so recording is cheap even when
+ * every core is committing. Get the instance with {@link CarlSTM#getMetrics()}
+ * and, if JMX access is wanted, call {@link #registerMBean()} once.
+ * <p>
+ * Recording is off by default, since it reads the clock twice per commit.
+ * Turn it on with {@link #setEnabled(boolean)}, over JMX, or by starting the
+ * JVM with {@code -Dcarlstm.metrics=true}.
+ */
+public final class StmMetrics implements StmMetricsMBean {
+	/**
+	 * Name under which {@link #registerMBean()} registers the metrics.
+	 */
+	public static final String OBJECT_NAME = "carlstm:type=StmMetrics";
+
+	/**
+	 * System property that turns recording on from the start when set to
+	 * {@code true}.
+	 */
+	public static final String PROPERTY = "carlstm.metrics";
+
+	/**
+	 * Most objects tracked for {@link #getHottestObjects(int)}. When a
+	 * conflict is on an untracked object and the table is full, the object
+	 * with the fewest conflicts is dropped to make room, so the table follows
+	 * the objects that are hot now rather than those that were hot first.
+	 */
+	private static final int MAX_TRACKED = 64;
+
+	private static final AbortCause[] CAUSES = AbortCause.values();
+
+	/**
+	 * An object and the number of aborts it caused. Once the table of tracked
+	 * objects has been full, the count of an object may include up to
+	 * {@link #getError()} aborts that were caused by objects it replaced.
+	 */
+	public static final class Hotspot {
+		private final Object object;
+		private final long conflicts;
+		private final long error;
+
+		Hotspot(Object object, long conflicts, long error) {
+			this.object = object;
+			this.conflicts = conflicts;
+			this.error = error;
+		}
+
+		/**
+		 * @return the transactional object, such as a {@link TxObject}
+		 */
+		public Object getObject() {
+			return object;
+		}
+
+		/**
+		 * @return the number of aborts caused by conflicts on the object
+		 */
+		public long getConflicts() {
+			return conflicts;
+		}
+
+		/**
+		 * @return how much {@link #getConflicts()} may overstate the aborts
+		 *         caused by the object
+		 */
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return object.getClass().getSimpleName() + "#"
+					+ Integer.toHexString(((TxCell) object).hash()) + "="
+					+ conflicts;
+		}
+	}
+
+	/**
+	 * The conflict count of a tracked object, and the count of the object it
+	 * replaced, which is how far it may overstate the object's own count.
+	 */
+	private static final class Counter {
+		long count;
+		long error;
+	}
+
+	private volatile boolean enabled = Boolean.getBoolean(PROPERTY);
+	private final LongAdder commits = new LongAdder();
+	private final LongAdder[] aborts = new LongAdder[CAUSES.length];
+	private final Histogram retries = new Histogram();
+	private final Histogram readSetSizes = new Histogram();
+	private final Histogram writeSetSizes = new Histogram();
+	private final Histogram commitLatency = new Histogram();
+	private final Histogram transactionLatency = new Histogram();
+	/**
+	 * The tracked objects, a space-saving sketch of the most conflicted ones.
+	 * Weak keys let a tracked object be collected; TxCell keeps the identity
+	 * equality of Object. Guarded by itself.
+	 */
+	private final WeakHashMap<TxCell, Counter> conflicts =
+			new WeakHashMap<TxCell, Counter>();
+
+	StmMetrics() {
+		for (int i = 0; i < aborts.length; i++) {
+			aborts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server under
+	 * {@link #OBJECT_NAME}. Does nothing if they are already registered.
+	 */
+	public void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Record a commit.
+	 *
+	 * @param txInfo the committed transaction, before its next start
+	 * @param retries number of aborted attempts before the commit
+	 * @param commitNanos time spent in {@link TxInfo#commit()}
+	 * @param transactionNanos time since the first attempt started
+	 */
+	void committed(TxInfo txInfo, int retries, long commitNanos,
+			long transactionNanos) {
+		commits.increment();
+		this.retries.record(retries);
+		readSetSizes.record(txInfo.readSetSize);
+		writeSetSizes.record(txInfo.writeSetSize);
+		commitLatency.record(commitNanos);
+		transactionLatency.record(transactionNanos);
+	}
+
+	/**
+	 * Record an aborted attempt.
+	 *
+	 * @param cause why the attempt aborted
+	 * @param conflict the object the conflict was detected on, or null
+	 */
+	void aborted(AbortCause cause, TxCell conflict) {
+		aborts[cause.ordinal()].increment();
+		if (conflict == null) {
+			return;
+		}
+		synchronized (conflicts) {
+			Counter counter = conflicts.get(conflict);
+			if (counter == null) {
+				counter = new Counter();
+				if (conflicts.size() >= MAX_TRACKED) {
+					// replace the least conflicted object and take over its
+					// count, so a new hot object soon overtakes the old ones
+					TxCell coldest = null;
+					Counter min = null;
+					for (Map.Entry<TxCell, Counter> entry : conflicts.entrySet()) {
+						if (min == null || entry.getValue().count < min.count) {
+							coldest = entry.getKey();
+							min = entry.getValue();
+						}
+					}
+					if (min != null) {
+						conflicts.remove(coldest);
+						counter.count = min.count;
+						counter.error = min.count;
+					}
+				}
+				conflicts.put(conflict, counter);
+			}
+			counter.count++;
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turn recording on or off. While disabled, which is the default unless
+	 * {@value #PROPERTY} is set, transactions do not read the clock or touch
+	 * any counter.
+	 */
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getCommits() {
+		return commits.sum();
+	}
+
+	@Override
+	public long getAborts() {
+		long total = 0;
+		for (LongAdder count : aborts) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of attempts aborted for the given reason
+	 */
+	public long getAborts(AbortCause cause) {
+		return aborts[cause.ordinal()].sum();
+	}
+
+	@Override
+	public long getLockedOnReadAborts() {
+		return getAborts(AbortCause.LOCKED_ON_READ);
+	}
+
+	@Override
+	public long getNewerOnReadAborts() {
+		return getAborts(AbortCause.NEWER_ON_READ);
+	}
+
+	@Override
+	public long getLockFailedAborts() {
+		return getAborts(AbortCause.LOCK_FAILED);
+	}
+
+	@Override
+	public long getValidationFailedAborts() {
+		return getAborts(AbortCause.VALIDATION_FAILED);
+	}
+
+	@Override
+	public long getExplicitAborts() {
+		return getAborts(AbortCause.EXPLICIT);
+	}
+
+	@Override
+	public long getRetryAborts() {
+		return getAborts(AbortCause.RETRY);
+	}
+
+	@Override
+	public long getEagerRollbackAborts() {
+		return getAborts(AbortCause.EAGER_ROLLBACK);
+	}
+
+	@Override
+	public long getIrrevocableAborts() {
+		return getAborts(AbortCause.IRREVOCABLE);
+	}
+
+	/**
+	 * @return the number of aborted attempts per committed transaction
+	 */
+	public Histogram getRetries() {
+		return retries;
+	}
+
+	/**
+	 * @return the number of objects read per committed transaction
+	 */
+	public Histogram getReadSetSizes() {
+		return readSetSizes;
+	}
+
+	/**
+	 * @return the number of objects written per committed transaction
+	 */
+	public Histogram getWriteSetSizes() {
+		return writeSetSizes;
+	}
+
+	/**
+	 * @return the time spent in the successful commit, in nanoseconds
+	 */
+	public Histogram getCommitLatency() {
+		return commitLatency;
+	}
+
+	/**
+	 * @return the time from the start of the first attempt to the commit, in
+	 *         nanoseconds
+	 */
+	public Histogram getTransactionLatency() {
+		return transactionLatency;
+	}
+
+	@Override
+	public double getMeanRetries() {
+		return retries.getMean();
+	}
+
+	@Override
+	public long getRetriesP99() {
+		return retries.getPercentile(99);
+	}
+
+	@Override
+	public double getMeanReadSetSize() {
+		return readSetSizes.getMean();
+	}
+
+	@Override
+	public double getMeanWriteSetSize() {
+		return writeSetSizes.getMean();
+	}
+
+	@Override
+	public long getCommitLatencyP50() {
+		return commitLatency.getPercentile(50);
+	}
+
+	@Override
+	public long getCommitLatencyP99() {
+		return commitLatency.getPercentile(99);
+	}
+
+	@Override
+	public long getCommitLatencyP999() {
+		return commitLatency.getPercentile(99.9);
+	}
+
+	@Override
+	public long getTransactionLatencyP50() {
+		return transactionLatency.getPercentile(50);
+	}
+
+	@Override
+	public long getTransactionLatencyP99() {
+		return transactionLatency.getPercentile(99);
+	}
+
+	/**
+	 * @param n maximum number of objects to return
+	 * @return the objects that caused the most aborts, most conflicted first
+	 */
+	public List<Hotspot> getHottestObjects(int n) {
+		List<Hotspot> hotspots = new ArrayList<Hotspot>();
+		synchronized (conflicts) {
+			for (Map.Entry<TxCell, Counter> entry : conflicts.entrySet()) {
+				TxCell cell = entry.getKey();
+				if (cell != null) {
+					Counter counter = entry.getValue();
+					hotspots.add(new Hotspot(cell, counter.count, counter.error));
+				}
+			}
+		}
+		Collections.sort(hotspots, new Comparator<Hotspot>() {
+			@Override
+			public int compare(Hotspot a, Hotspot b) {
+				return a.conflicts > b.conflicts ? -1 : (a.conflicts == b.conflicts ? 0 : 1);
+			}
+		});
+		return hotspots.size() > n ? hotspots.subList(0, n) : hotspots;
+	}
+
+	@Override
+	public String[] getHottestObjects() {
+		List<Hotspot> hotspots = getHottestObjects(10);
+		String[] result = new String[hotspots.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = hotspots.get(i).toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Clear all counters, histograms and tracked objects.
+	 */
+	@Override
+	public void reset() {
+		commits.reset();
+		for (LongAdder count : aborts) {
+			count.reset();
+		}
+		retries.reset();
+		readSetSizes.reset();
+		writeSetSizes.reset();
+		commitLatency.reset();
+		transactionLatency.reset();
+		synchronized (conflicts) {
+			conflicts.clear();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package carlstm;
+
+/**
+ * JMX view of {@link StmMetrics}. Latencies are in nanoseconds.
+ */
+public interface StmMetricsMBean {
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	public long getCommits();
+
+	public long getAborts();
+
+	public long getLockedOnReadAborts();
+
+	public long getNewerOnReadAborts();
+
+	public long getLockFailedAborts();
+
+	public long getValidationFailedAborts();
+
+	public long getExplicitAborts();
+
+	public long getRetryAborts();
+
+	public long getEagerRollbackAborts();
+
+	public long getIrrevocableAborts();
+
+	public double getMeanRetries();
+
+	public long getRetriesP99();
+
+	public double getMeanReadSetSize();
+
+	public double getMeanWriteSetSize();
+
+	public long getCommitLatencyP50();
+
+	public long getCommitLatencyP99();
+
+	public long getCommitLatencyP999();
+
+	public long getTransactionLatencyP50();
+
+	public long getTransactionLatencyP99();
+
+	public String[] getHottestObjects();
+
+	public void reset();
+}
@@ -5,5 +5,17 @@ package carlstm;
  */
 @SuppressWarnings("serial")
 public class TransactionAbortedException extends Exception {
+	/**
+	 * The instance thrown by the STM itself. Aborts are part of normal
+	 * operation, so it is allocated once and carries no stack trace.
+	 */
+	static final TransactionAbortedException INSTANCE =
+			new TransactionAbortedException(false);
 
+	public TransactionAbortedException() {
+	}
+
+	private TransactionAbortedException(boolean writableStackTrace) {
+		super(null, null, false, writableStackTrace);
+	}
 }
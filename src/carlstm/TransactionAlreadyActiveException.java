@@ -1,8 +1,11 @@
 package carlstm;
 
 /**
- * This transaction is thrown if {@link CarlSTM#execute(Transaction)} is called
- * within an already-executing transaction.
+ * This exception is thrown if a transaction is started on a thread that is
+ * already executing one, for example when an executor passed to
+ * {@link CarlSTM#executeAsync(Transaction, java.util.concurrent.Executor)}
+ * runs the attempt inside another transaction. A plain
+ * {@link CarlSTM#execute(Transaction)} nests instead.
  */
 @SuppressWarnings("serial")
 public class TransactionAlreadyActiveException extends RuntimeException {
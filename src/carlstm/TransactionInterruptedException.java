@@ -0,0 +1,11 @@
+package carlstm;
+
+/**
+ * This exception is thrown if the thread of a transaction blocked in
+ * {@link CarlSTM#retry()} is interrupted. The transaction ends without
+ * committing, and the interrupt stays set on the thread.
+ */
+@SuppressWarnings("serial")
+public class TransactionInterruptedException extends RuntimeException {
+
+}
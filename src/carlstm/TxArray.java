@@ -0,0 +1,362 @@
+package carlstm;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * A transactional array of objects. Instead of a {@link TxObject} per
+ * element, the elements are grouped and each group shares one lock word, so
+ * the granularity of conflict detection can be chosen to fit the use:
+ * <ul>
+ * <li>{@link Granularity#ELEMENT}: every element has its own version, as if
+ * it were a {@link TxObject}. Transactions only conflict on the same
+ * element.</li>
+ * <li>{@link Granularity#BLOCK}: a run of {@value #BLOCK_SIZE} neighbouring
+ * elements, about one cache line of references, shares a version. Scans
+ * and ring buffers that move through the array in order keep a much smaller
+ * read set.</li>
+ * <li>{@link Granularity#STRIPE}: element {@code i} belongs to stripe
+ * {@code i % stripes}, for a number of stripes chosen by the caller. The
+ * number of lock words stays fixed however long the array is.</li>
+ * </ul>
+ * A transaction that reads any element of a group aborts if another
+ * transaction commits a write to any element of the same group. Groups are
+ * always written lazily, like the stripes of a {@link TxCounter}, even inside
+ * an eager transaction.
+ *
+ * @param <T> type of the elements
+ */
+public final class TxArray<T> {
+	/** Number of elements in a block of {@link Granularity#BLOCK}. */
+	public static final int BLOCK_SIZE = 16;
+
+	/**
+	 * How elements are grouped under a shared version.
+	 */
+	public enum Granularity {
+		/** One version per element. */
+		ELEMENT,
+		/** One version per block of {@value TxArray#BLOCK_SIZE} elements. */
+		BLOCK,
+		/** One version per stripe of interleaved elements. */
+		STRIPE
+	}
+
+	/**
+	 * The writes a transaction buffered for one group, as a small
+	 * open-addressing map from element index to new value.
+	 */
+	private static final class Pending {
+		int[] indexes = new int[4];
+		Object[] values = new Object[4];
+		boolean[] used = new boolean[4];
+		int size;
+		/** Value of {@link TxLog#savepoints} when this buffer was made. */
+		int savepoint;
+
+		Pending(int savepoint) {
+			this.savepoint = savepoint;
+		}
+
+		Pending(Pending other, int savepoint) {
+			this.savepoint = savepoint;
+			this.indexes = other.indexes.clone();
+			this.values = other.values.clone();
+			this.used = other.used.clone();
+			this.size = other.size;
+		}
+
+		/**
+		 * @return the position of an index, or of the free position where it
+		 *         belongs
+		 */
+		private int position(int index) {
+			int mask = used.length - 1;
+			// the top bits of a Fibonacci hash, so runs of indexes spread out
+			int i = (index * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+			while (used[i] && indexes[i] != index) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		boolean has(int index) {
+			return used[position(index)];
+		}
+
+		Object get(int index) {
+			return values[position(index)];
+		}
+
+		void put(int index, Object value) {
+			int i = position(index);
+			if (!used[i]) {
+				if (2 * (size + 1) > used.length) {
+					grow();
+					i = position(index);
+				}
+				used[i] = true;
+				indexes[i] = index;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		private void grow() {
+			int[] oldIndexes = indexes;
+			Object[] oldValues = values;
+			boolean[] oldUsed = used;
+			indexes = new int[oldUsed.length * 2];
+			values = new Object[oldUsed.length * 2];
+			used = new boolean[oldUsed.length * 2];
+			for (int n = 0; n < oldUsed.length; n++) {
+				if (oldUsed[n]) {
+					int i = position(oldIndexes[n]);
+					used[i] = true;
+					indexes[i] = oldIndexes[n];
+					values[i] = oldValues[n];
+				}
+			}
+		}
+	}
+
+	/**
+	 * One group of elements and the lock word guarding them.
+	 */
+	private static final class Group extends TxCell {
+		final Object[] elements;
+
+		Group(Object[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		void publish(TxLog log, int slot, long version) {
+			Pending pending = (Pending) log.values[slot];
+			for (int i = 0; i < pending.used.length; i++) {
+				if (pending.used[i]) {
+					elements[pending.indexes[i]] = pending.values[i];
+				}
+			}
+		}
+
+		// groups are never written in place, so these only have to agree
+		// with each other
+		@Override
+		void save(TxLog log, int slot) {
+			log.values[slot] = new Pending(log.savepoints);
+		}
+
+		@Override
+		void store(Object value, long bits) {
+		}
+	}
+
+	private final Object[] elements;
+	private final Group[] groups;
+	/** An element's group is {@code (index >>> shift) & mask}. */
+	private final int shift;
+	private final int mask;
+
+	/**
+	 * Create an array with a version per element, every element null.
+	 */
+	public TxArray(int length) {
+		this(length, Granularity.ELEMENT);
+	}
+
+	/**
+	 * Create an array of elements grouped by element or by block, every
+	 * element null. Use {@link #TxArray(int, int)} for stripes.
+	 */
+	public TxArray(int length, Granularity granularity) {
+		this(length, granularity, 1);
+		if (granularity == Granularity.STRIPE) {
+			throw new IllegalArgumentException("give the number of stripes");
+		}
+	}
+
+	/**
+	 * Create an array of elements grouped into interleaved stripes, every
+	 * element null.
+	 *
+	 * @param stripes number of stripes; rounded up to a power of two
+	 */
+	public TxArray(int length, int stripes) {
+		this(length, Granularity.STRIPE, stripes);
+	}
+
+	private TxArray(int length, Granularity granularity, int stripes) {
+		if (length < 0 || stripes <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.elements = new Object[length];
+		int count;
+		switch (granularity) {
+		case BLOCK:
+			this.shift = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+			this.mask = -1;
+			count = (int) (((long) length + BLOCK_SIZE - 1) >>> shift);
+			break;
+		case STRIPE:
+			count = 1;
+			while (count < stripes && count < length && count < (1 << 30)) {
+				count <<= 1;
+			}
+			this.shift = 0;
+			this.mask = count - 1;
+			break;
+		default:
+			this.shift = 0;
+			this.mask = -1;
+			count = length;
+			break;
+		}
+		this.groups = new Group[count];
+		for (int n = 0; n < count; n++) {
+			groups[n] = new Group(elements);
+		}
+	}
+
+	/**
+	 * @return the number of elements
+	 */
+	public int length() {
+		return elements.length;
+	}
+
+	/**
+	 * @return the element at an index as seen by the current transaction
+	 */
+	public T get(int index) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		checkIndex(index);
+		return read(TxInfo.current(), index);
+	}
+
+	/**
+	 * Set the element at an index when the current transaction commits.
+	 */
+	public void set(int index, T value) throws NoActiveTransactionException {
+		checkIndex(index);
+		write(writer(), index, value);
+	}
+
+	/**
+	 * Set a range of elements to the same value when the current transaction
+	 * commits.
+	 *
+	 * @param from index of the first element, inclusive
+	 * @param to index of the last element, exclusive
+	 */
+	public void fill(int from, int to, T value)
+			throws NoActiveTransactionException {
+		checkRange(from, to - from);
+		TxInfo txInfo = writer();
+		for (int index = from; index < to; index++) {
+			write(txInfo, index, value);
+		}
+	}
+
+	/**
+	 * Copy a range of elements from one array to another, or within one
+	 * array, as part of the current transaction. Like
+	 * {@link System#arraycopy}, overlapping ranges are copied as if through a
+	 * temporary array.
+	 */
+	public static <T> void copy(TxArray<? extends T> src, int srcPos,
+			TxArray<T> dest, int destPos, int length)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		src.checkRange(srcPos, length);
+		dest.checkRange(destPos, length);
+		TxInfo txInfo = TxArray.writer();
+		if (src == dest && srcPos < destPos) {
+			// copy backwards so that no element is overwritten before it is read
+			for (int n = length - 1; n >= 0; n--) {
+				dest.write(txInfo, destPos + n, src.read(txInfo, srcPos + n));
+			}
+		} else {
+			for (int n = 0; n < length; n++) {
+				dest.write(txInfo, destPos + n, src.read(txInfo, srcPos + n));
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T read(TxInfo txInfo, int index) throws TransactionAbortedException {
+		Group group = groups[(index >>> shift) & mask];
+		int slot = group.logged(txInfo);
+		if (slot >= 0) {
+			Pending pending = (Pending) txInfo.log.values[slot];
+			if (pending != null && pending.has(index)) {
+				return (T) pending.get(index);
+			}
+		}
+		// read the committed value even if the group is in the read set,
+		// since another element of it may be all the transaction read so far
+		long pre = group.beginRead(txInfo);
+		Object result = elements[index];
+		// the elements are plain array slots, so keep the load before the
+		// second look at the lock word
+		VarHandle.loadLoadFence();
+		group.endRead(txInfo, pre);
+		if (slot < 0) {
+			group.logRead(txInfo, null, 0);
+		} else if ((txInfo.log.flags[slot] & TxLog.READ) == 0) {
+			txInfo.log.beforeUpdate(slot);
+			txInfo.log.flags[slot] |= TxLog.READ;
+		}
+		return (T) result;
+	}
+
+	private void write(TxInfo txInfo, int index, Object value) {
+		Group group = groups[(index >>> shift) & mask];
+		TxLog log = txInfo.log;
+		int slot = log.find(group);
+		if (slot < 0) {
+			Pending pending = new Pending(log.savepoints);
+			pending.put(index, value);
+			log.insert(group, pending, 0, TxLog.WRITTEN);
+			txInfo.contention.opened++;
+			return;
+		}
+		Pending pending = (Pending) log.values[slot];
+		if (pending != null && (log.depth == 0 || pending.savepoint == log.savepoints)) {
+			// no savepoint has been opened since the buffer was made, so no
+			// undo entry refers to it; a bulk fill must not copy it each time
+			pending.put(index, value);
+			return;
+		}
+		log.beforeUpdate(slot);
+		if (pending == null) {
+			pending = new Pending(log.savepoints);
+		} else {
+			// the undo stack holds the old buffer, so it must not change
+			pending = new Pending(pending, log.savepoints);
+		}
+		pending.put(index, value);
+		log.values[slot] = pending;
+		log.flags[slot] |= TxLog.WRITTEN;
+	}
+
+	private static TxInfo writer() throws NoActiveTransactionException {
+		TxInfo txInfo = TxInfo.current();
+		if (txInfo.readOnly) {
+			throw new ReadOnlyTransactionException();
+		}
+		return txInfo;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= elements.length) {
+			throw new IndexOutOfBoundsException("index " + index + ", length "
+					+ elements.length);
+		}
+	}
+
+	private void checkRange(int from, int length) {
+		if (length < 0 || from < 0 || from > elements.length - length) {
+			throw new IndexOutOfBoundsException("range " + from + " to "
+					+ (from + length) + ", length " + elements.length);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package carlstm;
+
+/**
+ * A transactional boolean. It works like a {@link TxObject} holding a
+ * {@link Boolean}, but the value and any buffered write are kept as a
+ * primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxBoolean extends TxCell {
+	volatile boolean value;
+
+	public TxBoolean(boolean value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the value of this cell as seen by the current transaction
+	 */
+	public boolean get() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		int slot = logged(txInfo);
+		if (slot >= 0) {
+			if ((txInfo.log.flags[slot] & TxLog.OWNED) != 0) {
+				return value;
+			}
+			return txInfo.log.bits[slot] != 0;
+		}
+		long pre = beginRead(txInfo);
+		boolean result = value;
+		endRead(txInfo, pre);
+		logRead(txInfo, null, result ? 1 : 0);
+		return result;
+	}
+
+	/**
+	 * Set the value of this cell when the current transaction commits.
+	 */
+	public void set(boolean value) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		logWrite(TxInfo.current(), null, value ? 1 : 0);
+	}
+
+	@Override
+	void publish(TxLog log, int slot, long version) {
+		value = log.bits[slot] != 0;
+	}
+
+	@Override
+	void save(TxLog log, int slot) {
+		log.bits[slot] = value ? 1 : 0;
+	}
+
+	@Override
+	void store(Object value, long bits) {
+		this.value = bits != 0;
+	}
+}
@@ -0,0 +1,363 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Common part of every transactional cell: the versioned lock word used by
+ * the commit protocol and the read and write logging shared by
+ * {@link TxObject} and the primitive cells such as {@link TxInt}. A subclass
+ * only has to store its value, copy a buffered value into it on commit, and
+ * move its value to and from a log slot for eager transactions.
+ * <p>
+ * A cell itself holds only its value and a reference to its {@link Record}.
+ * By default every cell gets its own record when it is constructed. In
+ * striped mode the lock words live in the {@link OwnershipRecords} table, so
+ * a cell has no record until it needs a history of old versions.
+ */
+abstract class TxCell {
+	private static final AtomicLongFieldUpdater<Record> LOCK =
+			AtomicLongFieldUpdater.newUpdater(Record.class, "lock");
+	private static final AtomicLong ids = new AtomicLong(0);
+
+	/**
+	 * The state of a cell that is not its value.
+	 */
+	static final class Record {
+		/**
+		 * Versioned lock word: the write version of the last commit that
+		 * updated the cell, shifted left by two, with the low bit set while a
+		 * transaction owns the cell and the next bit set once that
+		 * transaction is committing. Unused in striped mode; always access it
+		 * through {@link TxCell#lockWord()}.
+		 */
+		volatile long lock;
+		/**
+		 * Unique id; committing transactions lock their write sets in id
+		 * order so that two commits can never wait on each other. Identity
+		 * hashes are not unique, so they cannot serve as the order. Unused
+		 * in striped mode, which orders the locks by stripe.
+		 */
+		final long id;
+		/**
+		 * Values written by recent commits with their write versions, newest
+		 * (the current value) first, kept while multi-version mode is on.
+		 */
+		volatile Snapshots.Version history;
+
+		Record(long id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * The record of this cell, or null in striped mode until a commit sets
+	 * its history. It is only set by a commit holding the cell's lock, and a
+	 * reader only looks at the history after seeing the version that commit
+	 * stamped, so it needs no synchronization of its own.
+	 */
+	private Record record;
+
+	TxCell() {
+		if (!OwnershipRecords.STRIPED) {
+			record = new Record(ids.getAndIncrement());
+		}
+	}
+
+	/**
+	 * Install the value buffered in a log slot. Called by a committing
+	 * transaction that holds the lock on this cell.
+	 *
+	 * @param version the write version of the commit
+	 */
+	abstract void publish(TxLog log, int slot, long version);
+
+	/**
+	 * Finish the commit of a value an eager transaction already wrote in
+	 * place. The log slot holds the value it replaced.
+	 *
+	 * @param version the write version of the commit
+	 */
+	void publishInPlace(TxLog log, int slot, long version) {
+	}
+
+	/**
+	 * Copy the current value of this cell into a log slot, to be restored if
+	 * the eager transaction that locked the cell aborts.
+	 */
+	abstract void save(TxLog log, int slot);
+
+	/**
+	 * Called when an eager transaction has locked this cell and saved its
+	 * value, before it writes its own value in place.
+	 */
+	void lockedInPlace(TxLog log, int slot) {
+	}
+
+	/**
+	 * Set the value of this cell from a value in the log's representation:
+	 * an object for a {@link TxObject} and raw bits for a primitive cell.
+	 */
+	abstract void store(Object value, long bits);
+
+	/**
+	 * @return the identity hash of this cell, which keys the log and the
+	 *         striped tables
+	 */
+	final int hash() {
+		return System.identityHashCode(this);
+	}
+
+	/**
+	 * @return the current versioned lock word guarding this cell
+	 */
+	final long lockWord() {
+		return OwnershipRecords.STRIPED ? OwnershipRecords.get(this) : record.lock;
+	}
+
+	/**
+	 * @return the recent versions of this cell, newest first, or null if none
+	 *         have been kept
+	 */
+	final Snapshots.Version history() {
+		Record record = this.record;
+		return record == null ? null : record.history;
+	}
+
+	/**
+	 * Replace the recent versions of this cell. Called by a committing
+	 * transaction that holds the lock on this cell.
+	 */
+	final void setHistory(Snapshots.Version history) {
+		Record record = this.record;
+		if (record == null) {
+			// striped mode, where the id is never used
+			record = new Record(0);
+			record.history = history;
+			this.record = record;
+		} else {
+			record.history = history;
+		}
+	}
+
+	/**
+	 * Start reading the committed value. If a committing transaction holds the
+	 * cell, the contention manager decides whether to wait for it or to abort.
+	 *
+	 * @return the lock word to pass to {@link #endRead}
+	 */
+	final long beginRead(TxInfo txInfo) throws TransactionAbortedException {
+		long pre = lockWord();
+		for (int spins = 0; isLocked(pre); spins++) {
+			if (!txInfo.contentionManager.shouldWait(txInfo.contention, spins)) {
+				throw txInfo.abortWith(AbortCause.LOCKED_ON_READ, this);
+			}
+			pre = lockWord();
+		}
+		return pre;
+	}
+
+	/**
+	 * Finish reading the committed value, aborting if the cell changed while
+	 * it was read or was updated after the transaction started.
+	 */
+	final void endRead(TxInfo txInfo, long pre) throws TransactionAbortedException {
+		if (lockWord() != pre || version(pre) > txInfo.readVersion) {
+			throw txInfo.abortWith(AbortCause.NEWER_ON_READ, this);
+		}
+	}
+
+	/**
+	 * Record a value read from this cell in the log of a writing transaction.
+	 */
+	final void logRead(TxInfo txInfo, Object value, long bits) {
+		if (!txInfo.readOnly) {
+			TxLog log = txInfo.log;
+			// a released cell keeps its slot, so reading it again must reuse it
+			int slot = txInfo.released > 0 ? log.find(this) : -1;
+			if (slot >= 0) {
+				log.beforeUpdate(slot);
+				log.values[slot] = value;
+				log.bits[slot] = bits;
+				log.flags[slot] = TxLog.READ;
+			} else {
+				log.insert(this, value, bits, TxLog.READ);
+			}
+		}
+		txInfo.contention.opened++;
+	}
+
+	/**
+	 * Drop this cell from the read set of a writing transaction, if it has
+	 * only been read. Its slot stays in the log with no flags set, so the
+	 * commit neither validates nor writes it, and the next read fetches the
+	 * committed value again.
+	 */
+	final void release(TxInfo txInfo) {
+		if (txInfo.readOnly) {
+			return;
+		}
+		TxLog log = txInfo.log;
+		int slot = log.find(this);
+		if (slot >= 0 && log.flags[slot] == TxLog.READ) {
+			log.beforeUpdate(slot);
+			log.flags[slot] = 0;
+			txInfo.released++;
+		}
+	}
+
+	/**
+	 * Buffer a value written to this cell, or write it in place if the
+	 * transaction is eager.
+	 */
+	final void logWrite(TxInfo txInfo, Object value, long bits)
+			throws TransactionAbortedException {
+		if (txInfo.readOnly) {
+			throw new ReadOnlyTransactionException();
+		}
+		if (txInfo.eager) {
+			writeInPlace(txInfo, value, bits);
+			return;
+		}
+		TxLog log = txInfo.log;
+		int slot = log.find(this);
+		if (slot >= 0) {
+			log.beforeUpdate(slot);
+			log.values[slot] = value;
+			log.bits[slot] = bits;
+			log.flags[slot] |= TxLog.WRITTEN;
+		} else {
+			log.insert(this, value, bits, TxLog.WRITTEN);
+			txInfo.contention.opened++;
+		}
+	}
+
+	/**
+	 * Write a value into this cell for an eager transaction. The first write
+	 * locks the cell, waiting for as long as the contention manager allows,
+	 * and saves its old value and lock word in the log, where the commit and
+	 * the abort find them.
+	 */
+	private void writeInPlace(TxInfo txInfo, Object value, long bits)
+			throws TransactionAbortedException {
+		TxLog log = txInfo.log;
+		int slot = log.find(this);
+		if (slot < 0 || (log.flags[slot] & TxLog.OWNED) == 0) {
+			long word;
+			for (int spins = 0; (word = tryLock(false)) == -1; spins++) {
+				if (!txInfo.contentionManager.shouldWait(txInfo.contention, spins)) {
+					throw txInfo.abortWith(AbortCause.LOCK_FAILED, this);
+				}
+			}
+			if (slot < 0) {
+				slot = log.insert(this, null, 0, (byte) (TxLog.WRITTEN | TxLog.OWNED));
+				txInfo.contention.opened++;
+			} else if ((log.flags[slot] & TxLog.READ) != 0
+					&& version(word) > txInfo.readVersion) {
+				// updated since we read it, so the commit would fail anyway
+				restore(word);
+				throw txInfo.abortWith(AbortCause.VALIDATION_FAILED, this);
+			} else {
+				log.flags[slot] |= TxLog.WRITTEN | TxLog.OWNED;
+			}
+			log.lockWords[slot] = word;
+			save(log, slot);
+			lockedInPlace(log, slot);
+		}
+		txInfo.inPlaceWrites++;
+		store(value, bits);
+	}
+
+	/**
+	 * @return the log slot of this cell, or -1 if the transaction has not
+	 *         accessed it yet or keeps no log
+	 */
+	final int logged(TxInfo txInfo) {
+		return txInfo.readOnly ? -1 : txInfo.log.find(this);
+	}
+
+	/**
+	 * Try to take the commit lock on this object.
+	 *
+	 * @param committing true if the caller is about to take its write
+	 *            version, false for an eager transaction that will hold the
+	 *            lock until it commits or aborts
+	 * @return the unlocked lock word seen before locking, or -1 if the object
+	 *         is already locked by another transaction
+	 */
+	final long tryLock(boolean committing) {
+		long word = lockWord();
+		if (isLocked(word)) {
+			return -1;
+		}
+		long locked = word | (committing ? 3 : 1);
+		boolean done = OwnershipRecords.STRIPED
+				? OwnershipRecords.compareAndSet(this, word, locked)
+				: LOCK.compareAndSet(record, word, locked);
+		return done ? word : -1;
+	}
+
+	/**
+	 * Mark the lock an eager transaction holds on this cell as held by a
+	 * committing transaction. Called before the commit takes its write
+	 * version.
+	 */
+	final void markCommitting() {
+		restore(lockWord() | 2);
+	}
+
+	/**
+	 * Release the commit lock, stamping the object with a version.
+	 */
+	final void unlock(long version) {
+		restore(version << 2);
+	}
+
+	/**
+	 * Release the commit lock of a commit that failed, putting back the lock
+	 * word seen by {@link #tryLock(boolean)}.
+	 */
+	final void restore(long word) {
+		if (OwnershipRecords.STRIPED) {
+			OwnershipRecords.set(this, word);
+		} else {
+			record.lock = word;
+		}
+	}
+
+	/**
+	 * @return true if both cells are guarded by the same lock word
+	 */
+	static boolean sameLock(TxCell a, TxCell b) {
+		return a == b || OwnershipRecords.STRIPED
+				&& OwnershipRecords.index(a) == OwnershipRecords.index(b);
+	}
+
+	/**
+	 * @return the key the commit sorts its write set by: the stripe in
+	 *         striped mode, so that cells sharing a lock word end up next to
+	 *         each other, and the unique id otherwise
+	 */
+	final long lockOrder() {
+		return OwnershipRecords.STRIPED ? OwnershipRecords.index(this) : record.id;
+	}
+
+	static boolean isLocked(long word) {
+		return (word & 1) != 0;
+	}
+
+	/**
+	 * @return true if the lock word is held by a transaction that may
+	 *         already have taken its write version. A lock without this bit
+	 *         belongs to an eager transaction that has not started to
+	 *         commit, whose write version will be newer than the current
+	 *         clock.
+	 */
+	static boolean isCommitting(long word) {
+		return (word & 2) != 0;
+	}
+
+	static long version(long word) {
+		return word >>> 2;
+	}
+}
@@ -0,0 +1,168 @@
+package carlstm;
+
+/**
+ * A transactional counter for values that are mostly added to and rarely
+ * read. An {@link #add(long)} is logged as a delta rather than as a read
+ * followed by a write, and the commit adds the delta to the committed value
+ * without validating it, so concurrent adders never abort each other. The
+ * count is also spread over several stripes, each with its own lock word, and
+ * every thread adds to its own stripe, so concurrent commits do not even wait
+ * for the same lock.
+ * <p>
+ * Only {@link #get()} makes the transaction depend on the value: it reads
+ * every stripe, and the transaction aborts if any of them changes before it
+ * commits. Adding after a get turns the stripe's delta into an ordinary
+ * write of the value read plus the delta.
+ */
+public final class TxCounter {
+	/**
+	 * One stripe of the count.
+	 */
+	private static final class Stripe extends TxCell {
+		volatile long value;
+
+		Stripe(long value) {
+			this.value = value;
+		}
+
+		long get(TxInfo txInfo) throws TransactionAbortedException {
+			int slot = logged(txInfo);
+			if (slot >= 0 && (txInfo.log.flags[slot] & TxLog.ADDED) == 0) {
+				return txInfo.log.bits[slot];
+			}
+			long pre = beginRead(txInfo);
+			long result = value;
+			endRead(txInfo, pre);
+			if (slot < 0) {
+				logRead(txInfo, null, result);
+				return result;
+			}
+			// fold the pending delta into a write of the value just read
+			TxLog log = txInfo.log;
+			log.beforeUpdate(slot);
+			log.bits[slot] += result;
+			log.flags[slot] = TxLog.READ | TxLog.WRITTEN;
+			return log.bits[slot];
+		}
+
+		void add(TxInfo txInfo, long delta) {
+			if (txInfo.readOnly) {
+				throw new ReadOnlyTransactionException();
+			}
+			TxLog log = txInfo.log;
+			int slot = log.find(this);
+			if (slot < 0) {
+				log.insert(this, null, delta, TxLog.ADDED);
+				txInfo.contention.opened++;
+				return;
+			}
+			log.beforeUpdate(slot);
+			// a delta or an absolute value both simply grow by the delta; a
+			// slot that was only read becomes a write of the value read
+			log.bits[slot] += delta;
+			if ((log.flags[slot] & TxLog.ADDED) == 0) {
+				log.flags[slot] |= TxLog.WRITTEN;
+			}
+		}
+
+		@Override
+		void publish(TxLog log, int slot, long version) {
+			if ((log.flags[slot] & TxLog.ADDED) != 0) {
+				value += log.bits[slot];
+			} else {
+				value = log.bits[slot];
+			}
+		}
+
+		// an eager transaction still logs its adds as deltas, so stripes are
+		// never written in place
+		@Override
+		void save(TxLog log, int slot) {
+			log.bits[slot] = value;
+		}
+
+		@Override
+		void store(Object value, long bits) {
+			this.value = bits;
+		}
+	}
+
+	private final Stripe[] stripes;
+
+	/**
+	 * Create a counter starting at 0, with a stripe per available processor.
+	 */
+	public TxCounter() {
+		this(0);
+	}
+
+	/**
+	 * Create a counter with a stripe per available processor.
+	 *
+	 * @param value initial value
+	 */
+	public TxCounter(long value) {
+		this(value, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a counter. More stripes let more threads add without waiting for
+	 * each other's commits; fewer make {@link #get()} cheaper.
+	 *
+	 * @param value initial value
+	 * @param stripes number of stripes; rounded up to a power of two
+	 */
+	public TxCounter(long value, int stripes) {
+		int count = 1;
+		while (count < stripes && count < 256) {
+			count <<= 1;
+		}
+		this.stripes = new Stripe[count];
+		this.stripes[0] = new Stripe(value);
+		for (int i = 1; i < count; i++) {
+			this.stripes[i] = new Stripe(0);
+		}
+	}
+
+	/**
+	 * Add a delta to the counter when the current transaction commits,
+	 * without making the transaction depend on the current value.
+	 */
+	public void add(long delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		long id = Thread.currentThread().getId();
+		int index = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (stripes.length - 1);
+		stripes[index].add(txInfo, delta);
+	}
+
+	/**
+	 * Add one to the counter.
+	 */
+	public void increment() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		add(1);
+	}
+
+	/**
+	 * Subtract one from the counter.
+	 */
+	public void decrement() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		add(-1);
+	}
+
+	/**
+	 * @return the value of the counter as seen by the current transaction,
+	 *         including its own pending adds
+	 */
+	public long get() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		long sum = 0;
+		for (Stripe stripe : stripes) {
+			sum += stripe.get(txInfo);
+		}
+		return sum;
+	}
+}
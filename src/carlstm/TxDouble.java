@@ -0,0 +1,69 @@
+package carlstm;
+
+/**
+ * A transactional double. It works like a {@link TxObject} holding a
+ * {@link java.lang.Double}, but the value and any buffered write are kept as a
+ * primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxDouble extends TxCell {
+	volatile double value;
+
+	public TxDouble(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the value of this cell as seen by the current transaction
+	 */
+	public double get() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		int slot = logged(txInfo);
+		if (slot >= 0) {
+			if ((txInfo.log.flags[slot] & TxLog.OWNED) != 0) {
+				return value;
+			}
+			return Double.longBitsToDouble(txInfo.log.bits[slot]);
+		}
+		long pre = beginRead(txInfo);
+		double result = value;
+		endRead(txInfo, pre);
+		logRead(txInfo, null, Double.doubleToRawLongBits(result));
+		return result;
+	}
+
+	/**
+	 * Set the value of this cell when the current transaction commits.
+	 */
+	public void set(double value) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		logWrite(TxInfo.current(), null, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Add a delta to this cell.
+	 *
+	 * @return the new value
+	 */
+	public double add(double delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		double result = get() + delta;
+		set(result);
+		return result;
+	}
+
+	@Override
+	void publish(TxLog log, int slot, long version) {
+		value = Double.longBitsToDouble(log.bits[slot]);
+	}
+
+	@Override
+	void save(TxLog log, int slot) {
+		log.bits[slot] = Double.doubleToRawLongBits(value);
+	}
+
+	@Override
+	void store(Object value, long bits) {
+		this.value = Double.longBitsToDouble(bits);
+	}
+}
@@ -1,75 +1,632 @@
 package carlstm;
-import java.util.*;
 
+import java.util.Arrays;
 
 /**
- * This class holds transactional state for a single thread. You should use
- * {@link java.lang.ThreadLocal} to allocate a TxInfo to each Java thread. This
- * class is only used within the STM implementation, so it and its members are
- * set to package (default) visibility.
+ * This class holds transactional state for a single thread. Each Java thread
+ * gets one TxInfo through {@link #forThread()} and reuses it, with its log,
+ * for every transaction it runs. This class is only used within the STM
+ * implementation, so it and its members are set to package (default)
+ * visibility.
  */
 
-class Pair{
-	Object oldValue;
-	Object curValue;
-	public Pair(Object oldValue, Object curValue){
-		this.oldValue = oldValue;
-		this.curValue = curValue;
-	}
-}
 class TxInfo {
 	boolean activeTransaction;
-	Hashtable<TxObject, Pair> hashtable;
+	/**
+	 * Reads and buffered writes of the current attempt.
+	 */
+	final TxLog log = new TxLog();
+	/**
+	 * Value of the global clock when this transaction started. Any object
+	 * with a newer version was committed concurrently.
+	 */
+	long readVersion;
+	/**
+	 * True if the transaction was declared read-only. A read-only transaction
+	 * does not use the log: its reads are not recorded and it cannot write.
+	 */
+	boolean readOnly;
+	/**
+	 * True if the transaction is read-only and multi-version mode was on when
+	 * it started, so that it reads a snapshot as of its read version.
+	 */
+	boolean snapshot;
+	private Snapshots.Reader reader;
+	/**
+	 * True if the transaction writes in place, as {@link ExecutionMode#EAGER}
+	 * asks for.
+	 */
+	boolean eager;
+	/**
+	 * Number of writes the current attempt made in place. Nested transactions
+	 * compare it before and after to tell whether they can be rolled back.
+	 */
+	int inPlaceWrites;
+	/**
+	 * Set when part of an eager attempt should have been rolled back but
+	 * could not be, so the attempt must not commit.
+	 */
+	boolean lazyRerun;
+	/**
+	 * True while this thread runs an attempt that may write, for
+	 * {@link Irrevocable} to wait on.
+	 */
+	volatile boolean writing;
+	/**
+	 * True while the current attempt runs irrevocably.
+	 */
+	boolean irrevocable;
+	/**
+	 * Decides how long to wait for locked objects and how to back off after
+	 * an abort.
+	 */
+	ContentionManager contentionManager;
+	/**
+	 * Contention state of the running transaction. This is the thread's own
+	 * {@link #threadContention} except while an attempt of an asynchronous
+	 * transaction, which carries its state from thread to thread, is running.
+	 */
+	ContentionInfo contention;
+	final ContentionInfo threadContention = new ContentionInfo();
+	/**
+	 * Scratch space for the log slots of the write set, sorted by object id
+	 * during commit.
+	 */
+	private int[] writeSlots = new int[16];
+	/**
+	 * Why the current attempt is aborting and the object the conflict was
+	 * found on, for {@link StmMetrics}; null while the attempt is running.
+	 */
+	AbortCause abortCause;
+	TxCell conflict;
+	/**
+	 * Sizes of the read and write sets of the last commit.
+	 */
+	int readSetSize;
+	int writeSetSize;
+	/**
+	 * Cells read by alternatives of {@link CarlSTM#orElse} that were rolled
+	 * back. They are no longer in the log, but the decision to take the next
+	 * alternative depends on them, so the commit validates them and a retry
+	 * waits on them.
+	 */
+	private TxCell[] retainedReads = new TxCell[8];
+	private int retainedCount;
+	/**
+	 * Number of cells released from the read set by the current attempt.
+	 */
+	int released;
+	/**
+	 * Actions of the last commit still to be run by {@link #runAfterCommit()},
+	 * or null.
+	 */
+	private Runnable[] afterCommit;
+
+	/**
+	 * @return the TxInfo of the calling thread, created on first use
+	 */
+	static TxInfo forThread() {
+		TxInfo txInfo = ThreadLocalExample.get();
+		if (txInfo == null) {
+			txInfo = new TxInfo();
+			Irrevocable.register(txInfo);
+			ThreadLocalExample.set(txInfo);
+		}
+		return txInfo;
+	}
+
+	/**
+	 * @return the TxInfo of the transaction running on this thread
+	 * @throws NoActiveTransactionException if no transaction is running
+	 */
+	static TxInfo current() throws NoActiveTransactionException {
+		TxInfo txInfo = ThreadLocalExample.get();
+		if (txInfo == null || !txInfo.activeTransaction) {
+			throw new NoActiveTransactionException();
+		}
+		return txInfo;
+	}
+
 	/**
 	 * Start a transaction by initializing any necessary state. This method
 	 * should throw {@link TransactionAlreadyActiveException} if a transaction
 	 * is already being executed.
+	 *
+	 * @param readOnly true if the transaction will not write any TxObject
+	 * @param eager true to write in place, if the transaction may write and
+	 *            every cell has its own lock word
 	 */
-	void start(){
-		// TODO implement me
+	void start(boolean readOnly, boolean eager){
 		if (!activeTransaction){
 			activeTransaction = true;
-			hashtable = new Hashtable<TxObject, Pair>();
+			this.readOnly = readOnly;
+			this.eager = eager && !readOnly && !OwnershipRecords.STRIPED;
+			lazyRerun = false;
+			if (!readOnly && !irrevocable) {
+				Irrevocable.enter(this);
+			}
+			abortCause = null;
+			conflict = null;
+			if (readOnly && Snapshots.isEnabled()) {
+				if (reader == null) {
+					reader = Snapshots.register();
+				}
+				snapshot = true;
+				readVersion = Snapshots.enter(reader);
+			} else {
+				readVersion = GlobalClock.now();
+			}
 		}else{
 			throw new TransactionAlreadyActiveException();
 		}
 	}
 
 	/**
-	 * Try to commit a completed transaction. This method should update any
-	 * written TxObjects, acquiring locks on those objects as needed.
-	 * 
+	 * Record why the current attempt aborts.
+	 *
+	 * @return the exception to throw
+	 */
+	TransactionAbortedException abortWith(AbortCause cause, TxCell cell) {
+		abortCause = cause;
+		conflict = cell;
+		return TransactionAbortedException.INSTANCE;
+	}
+
+	/**
+	 * Try to commit a completed transaction. The write set is locked in
+	 * {@link TxCell#lockOrder()}, the global clock is advanced, the read set is validated by
+	 * version, and finally the buffered values are published and the locks are
+	 * released with the new version. Cells an eager transaction wrote in place
+	 * are locked already and only need their new version.
+	 *
 	 * @return true if the commit succeeds, false if the transaction aborted
 	 */
 	boolean commit() throws TransactionAbortedException{
-		// TODO implement me
-		for (TxObject txObject : hashtable.keySet()){
-			Pair pair = hashtable.get(txObject);
-			if(txObject.r.tryLock()) {
-				if (pair.oldValue.equals(txObject.value)) {
-					txObject.r.unlock();
-					if(txObject.w.tryLock()){
-						txObject.value = pair.curValue;
-						txObject.w.unlock();
-					} else {
-						throw new TransactionAbortedException();
+		if (lazyRerun) {
+			abortWith(AbortCause.EAGER_ROLLBACK, null);
+			return false;
+		}
+		if (readOnly) {
+			readSetSize = contention.opened;
+			writeSetSize = 0;
+			takeActions();
+			finish();
+			return true;
+		}
+		int writes = collectWrites();
+		writeSetSize = writes;
+		// a read-only transaction was validated by every read against its
+		// read version, so it is already serialized at that point.
+		if (writes == 0) {
+			takeActions();
+			finish();
+			return true;
+		}
+		sortByLockOrder(writeSlots, 0, writes - 1);
+
+		TxCell[] keys = log.keys;
+		int locked = 0;
+		boolean committed = false;
+		try {
+			for (; locked < writes; locked++) {
+				int slot = writeSlots[locked];
+				if ((log.flags[slot] & TxLog.OWNED) != 0) {
+					continue;
+				}
+				if (locked > 0 && sharesLock(locked)) {
+					// striped mode: the previous cell's record guards this one too
+					log.lockWords[slot] = log.lockWords[writeSlots[locked - 1]];
+				} else if (!lock(slot)) {
+					return false;
+				}
+			}
+			if (inPlaceWrites > 0) {
+				// snapshot readers may read around an eager lock only until
+				// its owner can take a write version they must see
+				for (int n = 0; n < writes; n++) {
+					int slot = writeSlots[n];
+					if ((log.flags[slot] & TxLog.OWNED) != 0) {
+						keys[slot].markCommitting();
 					}
+				}
+			}
+			long writeVersion = GlobalClock.tick();
+			// if nobody committed since we started there is nothing to validate
+			if (writeVersion != readVersion + 1 && !validate(true)) {
+				return false;
+			}
+			RedoLog redo = RedoLog.installed;
+			for (int n = 0; n < writes; n++) {
+				int slot = writeSlots[n];
+				if ((log.flags[slot] & TxLog.OWNED) != 0) {
+					keys[slot].publishInPlace(log, slot, writeVersion);
 				} else {
-					txObject.r.unlock();
-					return false;
+					keys[slot].publish(log, slot, writeVersion);
+				}
+				if (redo == null && (n == writes - 1 || !sharesLock(n + 1))) {
+					keys[slot].unlock(writeVersion);
+				}
+			}
+			long logged = -1;
+			RuntimeException unlogged = null;
+			if (redo != null) {
+				// append while still holding the locks, so that the records of
+				// two commits to the same cell are in commit order
+				try {
+					logged = redo.append(log, writeSlots, writes);
+				} catch (RuntimeException e) {
+					unlogged = e;
+				}
+				for (int n = 0; n < writes; n++) {
+					if (n == writes - 1 || !sharesLock(n + 1)) {
+						keys[writeSlots[n]].unlock(writeVersion);
+					}
+				}
+			}
+			committed = true;
+			long waiters = Waiter.stripesOf(keys, writeSlots, writes);
+			takeActions();
+			finish();
+			Waiter.wake(waiters);
+			if (unlogged != null) {
+				// the values are published; only their durability failed
+				throw unlogged;
+			}
+			if (logged >= 0) {
+				redo.awaitDurable(logged);
+			}
+			return true;
+		} finally {
+			if (!committed) {
+				// cells written in place stay locked until the abort undoes them
+				for (int n = 0; n < locked; n++) {
+					int slot = writeSlots[n];
+					if ((log.flags[slot] & TxLog.OWNED) == 0
+							&& (n == locked - 1 || !sharesLock(n + 1))) {
+						keys[slot].restore(log.lockWords[slot]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the slots of all written objects into {@link #writeSlots}.
+	 *
+	 * @return the number of written objects
+	 */
+	private int collectWrites() {
+		if (writeSlots.length < log.size) {
+			writeSlots = new int[log.used.length];
+		}
+		int writes = 0;
+		int reads = 0;
+		for (int n = 0; n < log.size; n++) {
+			int slot = log.used[n];
+			byte flag = log.flags[slot];
+			if ((flag & (TxLog.WRITTEN | TxLog.ADDED)) != 0) {
+				writeSlots[writes++] = slot;
+			}
+			if ((flag & TxLog.READ) != 0) {
+				reads++;
+			}
+		}
+		readSetSize = reads;
+		return writes;
+	}
+
+	/**
+	 * @return true if the n-th cell of the sorted write set is guarded by the
+	 *         same lock word as the one before it
+	 */
+	private boolean sharesLock(int n) {
+		return OwnershipRecords.STRIPED
+				&& TxCell.sameLock(log.keys[writeSlots[n - 1]], log.keys[writeSlots[n]]);
+	}
+
+	/**
+	 * Sort a range of log slots by the lock order of the object they hold.
+	 */
+	private void sortByLockOrder(int[] slots, int lo, int hi) {
+		TxCell[] keys = log.keys;
+		while (hi - lo > 16) {
+			long pivot = keys[slots[(lo + hi) >>> 1]].lockOrder();
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (keys[slots[i]].lockOrder() < pivot) {
+					i++;
+				}
+				while (keys[slots[j]].lockOrder() > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int t = slots[i];
+					slots[i++] = slots[j];
+					slots[j--] = t;
 				}
+			}
+			// recurse into the smaller half to bound the stack depth
+			if (j - lo < hi - i) {
+				sortByLockOrder(slots, lo, j);
+				lo = i;
+			} else {
+				sortByLockOrder(slots, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			int t = slots[i];
+			long order = keys[t].lockOrder();
+			int j = i - 1;
+			while (j >= lo && keys[slots[j]].lockOrder() > order) {
+				slots[j + 1] = slots[j];
+				j--;
+			}
+			slots[j + 1] = t;
+		}
+	}
+
+	/**
+	 * Take the commit lock on a written object, waiting for as long as the
+	 * contention manager allows if another committer holds it.
+	 */
+	private boolean lock(int slot) {
+		TxCell txObject = log.keys[slot];
+		for (int spins = 0;; spins++) {
+			long word = txObject.tryLock(true);
+			if (word != -1) {
+				log.lockWords[slot] = word;
+				return true;
+			}
+			if (!contentionManager.shouldWait(contention, spins)) {
+				abortWith(AbortCause.LOCK_FAILED, txObject);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Check that no object in the read set was updated since it was read.
+	 * Every read already checked the object against the read version, so any
+	 * newer version must come from a concurrent commit.
+	 *
+	 * @param holdingLocks true during commit, when the written objects are
+	 *            locked by this transaction and their lock words were saved;
+	 *            objects written in place are locked either way
+	 */
+	private boolean validate(boolean holdingLocks) {
+		for (int n = 0; n < log.size; n++) {
+			int slot = log.used[n];
+			byte flag = log.flags[slot];
+			if ((flag & TxLog.READ) == 0) {
+				continue;
+			}
+			long word = holdingLocks || (flag & TxLog.OWNED) != 0
+					? heldWord(slot, flag) : log.keys[slot].lockWord();
+			if (TxCell.isLocked(word) || TxCell.version(word) > readVersion) {
+				abortWith(AbortCause.VALIDATION_FAILED, log.keys[slot]);
+				return false;
+			}
+		}
+		for (int n = 0; n < retainedCount; n++) {
+			TxCell cell = retainedReads[n];
+			int slot = log.find(cell);
+			long word = slot >= 0 && (holdingLocks
+					|| (log.flags[slot] & TxLog.OWNED) != 0)
+					? heldWord(slot, log.flags[slot])
+					: holdingLocks ? heldWord(cell) : cell.lockWord();
+			if (TxCell.isLocked(word) || TxCell.version(word) > readVersion) {
+				abortWith(AbortCause.VALIDATION_FAILED, cell);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the lock word of a logged cell as it was before this commit
+	 *         locked the write set
+	 */
+	private long heldWord(int slot, byte flag) {
+		if ((flag & (TxLog.WRITTEN | TxLog.ADDED)) != 0) {
+			return log.lockWords[slot];
+		}
+		return heldWord(log.keys[slot]);
+	}
+
+	/**
+	 * @return the lock word of a cell as it was before this commit locked the
+	 *         write set, which differs from the current one only if the cell
+	 *         shares a striped record with a written cell
+	 */
+	private long heldWord(TxCell cell) {
+		long word = cell.lockWord();
+		if (!OwnershipRecords.STRIPED || !TxCell.isLocked(word)) {
+			return word;
+		}
+		// the write set is sorted by stripe, so look for the record there
+		int index = OwnershipRecords.index(cell);
+		int lo = 0;
+		int hi = writeSetSize - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = writeSlots[mid];
+			long order = log.keys[slot].lockOrder();
+			if (order < index) {
+				lo = mid + 1;
+			} else if (order > index) {
+				hi = mid - 1;
 			} else {
-				throw new TransactionAbortedException();
+				return log.lockWords[slot];
+			}
+		}
+		return word;
+	}
+
+	/**
+	 * Check the read set for objects updated since they were read, without
+	 * taking any lock. Used to drop members of a batch before committing.
+	 *
+	 * @return the log position of the first stale read, or -1 if none is
+	 *         stale yet
+	 */
+	int firstStaleRead() {
+		if (GlobalClock.now() == readVersion) {
+			return -1;
+		}
+		for (int n = 0; n < log.size; n++) {
+			int slot = log.used[n];
+			if ((log.flags[slot] & TxLog.READ) == 0) {
+				continue;
+			}
+			long word = log.keys[slot].lockWord();
+			if (TxCell.isLocked(word) || TxCell.version(word) > readVersion) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Undo everything logged since the innermost savepoint, but remember the
+	 * cells read since then for validation.
+	 */
+	void rollbackToSavepoint() {
+		for (int n = log.savepointSize(); n < log.size; n++) {
+			int slot = log.used[n];
+			if ((log.flags[slot] & TxLog.READ) != 0) {
+				if (retainedCount == retainedReads.length) {
+					retainedReads = Arrays.copyOf(retainedReads,
+							retainedCount * 2);
+				}
+				retainedReads[retainedCount++] = log.keys[slot];
 			}
 		}
+		log.rollback();
+	}
+
+	/**
+	 * Undo everything logged since the innermost savepoint and move the read
+	 * version up to the current clock, provided every read made before the
+	 * savepoint is still valid. This lets a nested transaction that ran into
+	 * a conflict run again without aborting its parent.
+	 *
+	 * @return false if an earlier read is no longer valid, so the whole
+	 *         transaction has to abort
+	 */
+	boolean restartNested() {
+		log.rollback();
+		if (readOnly) {
+			// a read-only transaction has no read set to validate
+			return false;
+		}
+		long now = GlobalClock.now();
+		if (!validate(false)) {
+			return false;
+		}
+		readVersion = now;
+		abortCause = null;
+		conflict = null;
 		return true;
 	}
 
+	/**
+	 * @return every cell the current attempt read, including those read by
+	 *         rolled back alternatives
+	 */
+	TxCell[] readSet() {
+		TxCell[] cells = new TxCell[log.size + retainedCount];
+		int count = 0;
+		for (int n = 0; n < log.size; n++) {
+			int slot = log.used[n];
+			if ((log.flags[slot] & TxLog.READ) != 0) {
+				cells[count++] = log.keys[slot];
+			}
+		}
+		for (int n = 0; n < retainedCount; n++) {
+			cells[count++] = retainedReads[n];
+		}
+		return count == cells.length ? cells : Arrays.copyOf(cells, count);
+	}
+
+	private void finish() {
+		activeTransaction = false;
+		if (writing) {
+			Irrevocable.exit(this);
+		}
+		if (snapshot) {
+			Snapshots.exit(reader);
+			snapshot = false;
+		}
+		log.clear();
+		for (int n = 0; n < retainedCount; n++) {
+			retainedReads[n] = null;
+		}
+		retainedCount = 0;
+		released = 0;
+		inPlaceWrites = 0;
+	}
+
+	/**
+	 * Keep the actions of a committing transaction for
+	 * {@link #runAfterCommit()}, before {@link #finish()} clears the log.
+	 */
+	private void takeActions() {
+		afterCommit = log.actionCount == 0 ? null
+				: Arrays.copyOf(log.actions, log.actionCount);
+	}
+
+	/**
+	 * Run the actions of the last commit. Called once the commit is complete,
+	 * with the transaction no longer active, so an action may run
+	 * transactions of its own.
+	 */
+	void runAfterCommit() {
+		Runnable[] actions = afterCommit;
+		if (actions == null) {
+			return;
+		}
+		afterCommit = null;
+		// the transactions of an action install their own contention state
+		ContentionInfo info = contention;
+		ContentionManager manager = contentionManager;
+		try {
+			for (Runnable action : actions) {
+				action.run();
+			}
+		} finally {
+			contention = info;
+			contentionManager = manager;
+		}
+	}
+
 	/**
 	 * This method cleans up any transactional state if a transaction aborts.
 	 */
 	void abort() {
-		activeTransaction = false;
-		hashtable = null;
+		if (inPlaceWrites > 0) {
+			undoInPlace();
+		}
+		finish();
+	}
+
+	/**
+	 * Put back the old values of the cells an eager attempt wrote in place
+	 * and unlock them. They are stamped with a new version rather than their
+	 * old lock word: a reader that sampled the old lock word may have read a
+	 * value written in place since, and must not find the same lock word
+	 * again when it checks.
+	 */
+	private void undoInPlace() {
+		long version = GlobalClock.tick();
+		for (int n = 0; n < log.size; n++) {
+			int slot = log.used[n];
+			if ((log.flags[slot] & TxLog.OWNED) != 0) {
+				TxCell cell = log.keys[slot];
+				cell.store(log.values[slot], log.bits[slot]);
+				cell.unlock(version);
+			}
+		}
 	}
 }
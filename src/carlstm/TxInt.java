@@ -0,0 +1,79 @@
+package carlstm;
+
+/**
+ * A transactional int. It works like a {@link TxObject} holding a
+ * {@link Integer}, but the value and any buffered write are kept as a
+ * primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxInt extends TxCell {
+	volatile int value;
+
+	public TxInt(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the value of this cell as seen by the current transaction
+	 */
+	public int get() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		int slot = logged(txInfo);
+		if (slot >= 0) {
+			if ((txInfo.log.flags[slot] & TxLog.OWNED) != 0) {
+				return value;
+			}
+			return (int) txInfo.log.bits[slot];
+		}
+		long pre = beginRead(txInfo);
+		int result = value;
+		endRead(txInfo, pre);
+		logRead(txInfo, null, result);
+		return result;
+	}
+
+	/**
+	 * Set the value of this cell when the current transaction commits.
+	 */
+	public void set(int value) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		logWrite(TxInfo.current(), null, value);
+	}
+
+	/**
+	 * Add one to this cell.
+	 *
+	 * @return the new value
+	 */
+	public int increment() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		return add(1);
+	}
+
+	/**
+	 * Add a delta to this cell.
+	 *
+	 * @return the new value
+	 */
+	public int add(int delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		int result = get() + delta;
+		set(result);
+		return result;
+	}
+
+	@Override
+	void publish(TxLog log, int slot, long version) {
+		value = (int) log.bits[slot];
+	}
+
+	@Override
+	void save(TxLog log, int slot) {
+		log.bits[slot] = value;
+	}
+
+	@Override
+	void store(Object value, long bits) {
+		this.value = (int) bits;
+	}
+}
@@ -0,0 +1,101 @@
+package carlstm;
+
+/**
+ * A transactional array of ints, kept outside the Java heap so that even
+ * tens of millions of elements add no objects for the garbage collector to
+ * trace beyond one small lock-word holder per chunk.
+ * <p>
+ * Elements that share a chunk also share a version: a transaction that reads
+ * any element of a chunk aborts if another transaction commits a write to
+ * any element of the same chunk. Larger chunks keep the read set of a scan
+ * small, since {@link #get(int, int[], int, int)} reads a whole chunk at a
+ * time; smaller chunks let transactions that update nearby elements commit
+ * side by side. All elements start at 0.
+ */
+public final class TxIntArray extends OffHeapArray {
+	/**
+	 * Create an array with chunks of {@value OffHeapArray#DEFAULT_CHUNK_SIZE}
+	 * elements.
+	 */
+	public TxIntArray(int length) {
+		this(length, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create an array.
+	 *
+	 * @param length number of elements
+	 * @param chunkSize number of elements that share a version; rounded up
+	 *            to a power of two
+	 */
+	public TxIntArray(int length, int chunkSize) {
+		super(length, 4, chunkSize);
+	}
+
+	/**
+	 * @return the element at an index as seen by the current transaction
+	 */
+	public int get(int index) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		return (int) getBits(index);
+	}
+
+	/**
+	 * Copy a range of elements as seen by the current transaction into an
+	 * array.
+	 *
+	 * @param index index of the first element to copy
+	 * @param dst array to copy into
+	 * @param offset position in dst of the first element
+	 * @param count number of elements to copy
+	 */
+	public void get(int index, int[] dst, int offset, int count)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		if (offset < 0 || offset > dst.length - count) {
+			throw new IndexOutOfBoundsException();
+		}
+		getRange(index, dst, offset, count);
+	}
+
+	/**
+	 * Set the element at an index when the current transaction commits.
+	 */
+	public void set(int index, int value) throws NoActiveTransactionException {
+		setBits(index, value);
+	}
+
+	/**
+	 * Add a delta to the element at an index.
+	 *
+	 * @return the new value
+	 */
+	public int add(int index, int delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		int result = get(index) + delta;
+		set(index, result);
+		return result;
+	}
+
+	@Override
+	long load(int index) {
+		return memory.getInt(index << 2);
+	}
+
+	@Override
+	void store(int index, long bits) {
+		memory.putInt(index << 2, (int) bits);
+	}
+
+	@Override
+	void copy(int index, Object dst, int offset, int length) {
+		int[] values = (int[]) dst;
+		for (int n = 0; n < length; n++) {
+			values[offset + n] = memory.getInt((index + n) << 2);
+		}
+	}
+
+	@Override
+	void overlay(Object dst, int offset, long bits) {
+		((int[]) dst)[offset] = (int) bits;
+	}
+}
@@ -0,0 +1,281 @@
+package carlstm;
+
+import java.util.Arrays;
+
+/**
+ * The read/write log of a transaction: an open-addressing hash table keyed by
+ * cell identity and stored in flat parallel arrays. Each thread keeps one log
+ * for its whole life and clears it in place between attempts, so logging an
+ * access allocates nothing once the arrays have grown to the size of the
+ * thread's largest transaction.
+ */
+final class TxLog {
+	static final byte READ = 1;
+	static final byte WRITTEN = 2;
+	/**
+	 * The slot buffers a delta to add to the committed value rather than a
+	 * value, as logged by {@link TxCounter#add(long)}.
+	 */
+	static final byte ADDED = 4;
+	/**
+	 * The cell was written in place by an eager transaction, which holds its
+	 * lock. The slot keeps the value to restore if the transaction aborts,
+	 * and {@link #lockWords} the lock word from before it was locked.
+	 */
+	static final byte OWNED = 8;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Cell logged in each slot, or null if the slot is free. */
+	TxCell[] keys = new TxCell[INITIAL_CAPACITY];
+	/** Buffered value of each slot holding a {@link TxObject}. */
+	Object[] values = new Object[INITIAL_CAPACITY];
+	/** Buffered value of each slot holding a primitive cell, as raw bits. */
+	long[] bits = new long[INITIAL_CAPACITY];
+	/** Combination of {@link #READ}, {@link #WRITTEN}, {@link #ADDED} and {@link #OWNED} for each slot. */
+	byte[] flags = new byte[INITIAL_CAPACITY];
+	/** Lock word of each written object, saved when it is locked. */
+	long[] lockWords = new long[INITIAL_CAPACITY];
+	/** Occupied slots in insertion order, for iteration and clearing. */
+	int[] used = new int[INITIAL_CAPACITY / 2];
+	int size;
+
+	/**
+	 * Log size at each open savepoint, innermost last. While a savepoint is
+	 * open, every update of an already logged cell saves the slot's previous
+	 * contents on the undo stack.
+	 */
+	private int[] savepointSizes = new int[4];
+	private int[] savepointUndo = new int[4];
+	private int[] savepointActions = new int[4];
+	int depth;
+	/**
+	 * Number of savepoints ever opened, so that a buffer already copied for
+	 * the innermost savepoint can tell it may be updated in place.
+	 */
+	int savepoints;
+	/**
+	 * Undo stack: earlier contents of updated slots, keyed by cell rather
+	 * than by slot because {@link #grow()} moves the slots.
+	 */
+	private TxCell[] undoKeys = new TxCell[0];
+	private Object[] undoValues = new Object[0];
+	private long[] undoBits = new long[0];
+	private byte[] undoFlags = new byte[0];
+	private int undoSize;
+	/**
+	 * Actions to run once the transaction has committed, in the order they
+	 * were added. Rolling back a savepoint drops the ones added since.
+	 */
+	Runnable[] actions = new Runnable[0];
+	int actionCount;
+
+	/**
+	 * @return the slot holding the given object, or -1 if it is not logged
+	 */
+	int find(TxCell key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			TxCell k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == null) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Log a cell that is not in the log yet.
+	 *
+	 * @return the slot allocated to the cell
+	 */
+	int insert(TxCell key, Object value, long bits, byte flag) {
+		if (size == used.length) {
+			grow();
+		}
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		this.bits[i] = bits;
+		flags[i] = flag;
+		used[size++] = i;
+		return i;
+	}
+
+	/**
+	 * Forget every logged cell and every savepoint. Only the occupied slots
+	 * are touched.
+	 */
+	void clear() {
+		for (int n = 0; n < size; n++) {
+			int i = used[n];
+			keys[i] = null;
+			values[i] = null;
+			flags[i] = 0;
+		}
+		size = 0;
+		if (depth > 0) {
+			clearUndo(0);
+			depth = 0;
+		}
+		if (actionCount > 0) {
+			clearActions(0);
+		}
+	}
+
+	/**
+	 * Open a savepoint that {@link #rollback()} can return the log to.
+	 */
+	void savepoint() {
+		if (depth == savepointSizes.length) {
+			savepointSizes = Arrays.copyOf(savepointSizes, depth * 2);
+			savepointUndo = Arrays.copyOf(savepointUndo, depth * 2);
+			savepointActions = Arrays.copyOf(savepointActions, depth * 2);
+		}
+		savepointSizes[depth] = size;
+		savepointUndo[depth] = undoSize;
+		savepointActions[depth] = actionCount;
+		depth++;
+		savepoints++;
+	}
+
+	/**
+	 * @return the log size when the innermost savepoint was opened; the
+	 *         entries from there on were logged after it
+	 */
+	int savepointSize() {
+		return savepointSizes[depth - 1];
+	}
+
+	/**
+	 * @return the log size when the savepoint at the given depth was opened,
+	 *         counting from 0 for the outermost
+	 */
+	int savepointSize(int index) {
+		return savepointSizes[index];
+	}
+
+	/**
+	 * Close the innermost savepoint, keeping everything logged since. Its
+	 * undo records stay while an outer savepoint may still need them.
+	 */
+	void release() {
+		depth--;
+		if (depth == 0) {
+			clearUndo(0);
+		}
+	}
+
+	/**
+	 * Return the log to the state it had when the innermost savepoint was
+	 * opened, and close the savepoint.
+	 */
+	void rollback() {
+		depth--;
+		int mark = savepointSizes[depth];
+		// removing the newest entries first keeps every probe sequence intact:
+		// no older entry ever probed past a slot that was free when it was
+		// inserted
+		for (int n = size - 1; n >= mark; n--) {
+			int i = used[n];
+			keys[i] = null;
+			values[i] = null;
+			flags[i] = 0;
+		}
+		size = mark;
+		int undoMark = savepointUndo[depth];
+		for (int n = undoSize - 1; n >= undoMark; n--) {
+			int i = find(undoKeys[n]);
+			if (i >= 0) {
+				values[i] = undoValues[n];
+				bits[i] = undoBits[n];
+				flags[i] = undoFlags[n];
+			}
+		}
+		clearUndo(undoMark);
+		clearActions(savepointActions[depth]);
+	}
+
+	/**
+	 * Add an action to run after the commit.
+	 */
+	void addAction(Runnable action) {
+		if (actionCount == actions.length) {
+			actions = Arrays.copyOf(actions, Math.max(4, actionCount * 2));
+		}
+		actions[actionCount++] = action;
+	}
+
+	/**
+	 * Save the contents of a slot about to be updated while a savepoint is
+	 * open.
+	 */
+	void beforeUpdate(int slot) {
+		if (depth == 0) {
+			return;
+		}
+		if (undoSize == undoKeys.length) {
+			int capacity = Math.max(8, undoSize * 2);
+			undoKeys = Arrays.copyOf(undoKeys, capacity);
+			undoValues = Arrays.copyOf(undoValues, capacity);
+			undoBits = Arrays.copyOf(undoBits, capacity);
+			undoFlags = Arrays.copyOf(undoFlags, capacity);
+		}
+		undoKeys[undoSize] = keys[slot];
+		undoValues[undoSize] = values[slot];
+		undoBits[undoSize] = bits[slot];
+		undoFlags[undoSize] = flags[slot];
+		undoSize++;
+	}
+
+	private void clearActions(int mark) {
+		for (int n = mark; n < actionCount; n++) {
+			actions[n] = null;
+		}
+		actionCount = mark;
+	}
+
+	private void clearUndo(int mark) {
+		for (int n = mark; n < undoSize; n++) {
+			undoKeys[n] = null;
+			undoValues[n] = null;
+		}
+		undoSize = mark;
+	}
+
+	/**
+	 * Double the table, keeping it at most half full.
+	 */
+	private void grow() {
+		TxCell[] oldKeys = keys;
+		Object[] oldValues = values;
+		long[] oldBits = bits;
+		byte[] oldFlags = flags;
+		long[] oldLockWords = lockWords;
+		int[] oldUsed = used;
+		int capacity = oldKeys.length * 2;
+		keys = new TxCell[capacity];
+		values = new Object[capacity];
+		bits = new long[capacity];
+		flags = new byte[capacity];
+		lockWords = new long[capacity];
+		used = new int[capacity / 2];
+		int count = size;
+		size = 0;
+		for (int n = 0; n < count; n++) {
+			int o = oldUsed[n];
+			int i = insert(oldKeys[o], oldValues[o], oldBits[o], oldFlags[o]);
+			lockWords[i] = oldLockWords[o];
+		}
+	}
+
+	private static int hash(TxCell key) {
+		return (int) ((key.hash() * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+}
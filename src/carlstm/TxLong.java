@@ -0,0 +1,79 @@
+package carlstm;
+
+/**
+ * A transactional long. It works like a {@link TxObject} holding a
+ * {@link Long}, but the value and any buffered write are kept as a
+ * primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxLong extends TxCell {
+	volatile long value;
+
+	public TxLong(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the value of this cell as seen by the current transaction
+	 */
+	public long get() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		TxInfo txInfo = TxInfo.current();
+		int slot = logged(txInfo);
+		if (slot >= 0) {
+			if ((txInfo.log.flags[slot] & TxLog.OWNED) != 0) {
+				return value;
+			}
+			return txInfo.log.bits[slot];
+		}
+		long pre = beginRead(txInfo);
+		long result = value;
+		endRead(txInfo, pre);
+		logRead(txInfo, null, result);
+		return result;
+	}
+
+	/**
+	 * Set the value of this cell when the current transaction commits.
+	 */
+	public void set(long value) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		logWrite(TxInfo.current(), null, value);
+	}
+
+	/**
+	 * Add one to this cell.
+	 *
+	 * @return the new value
+	 */
+	public long increment() throws NoActiveTransactionException,
+			TransactionAbortedException {
+		return add(1);
+	}
+
+	/**
+	 * Add a delta to this cell.
+	 *
+	 * @return the new value
+	 */
+	public long add(long delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		long result = get() + delta;
+		set(result);
+		return result;
+	}
+
+	@Override
+	void publish(TxLog log, int slot, long version) {
+		value = log.bits[slot];
+	}
+
+	@Override
+	void save(TxLog log, int slot) {
+		log.bits[slot] = value;
+	}
+
+	@Override
+	void store(Object value, long bits) {
+		this.value = bits;
+	}
+}
@@ -0,0 +1,101 @@
+package carlstm;
+
+/**
+ * A transactional array of longs, kept outside the Java heap so that even
+ * tens of millions of elements add no objects for the garbage collector to
+ * trace beyond one small lock-word holder per chunk.
+ * <p>
+ * Elements that share a chunk also share a version: a transaction that reads
+ * any element of a chunk aborts if another transaction commits a write to
+ * any element of the same chunk. Larger chunks keep the read set of a scan
+ * small, since {@link #get(int, long[], int, int)} reads a whole chunk at a
+ * time; smaller chunks let transactions that update nearby elements commit
+ * side by side. All elements start at 0.
+ */
+public final class TxLongArray extends OffHeapArray {
+	/**
+	 * Create an array with chunks of {@value OffHeapArray#DEFAULT_CHUNK_SIZE}
+	 * elements.
+	 */
+	public TxLongArray(int length) {
+		this(length, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create an array.
+	 *
+	 * @param length number of elements
+	 * @param chunkSize number of elements that share a version; rounded up
+	 *            to a power of two
+	 */
+	public TxLongArray(int length, int chunkSize) {
+		super(length, 8, chunkSize);
+	}
+
+	/**
+	 * @return the element at an index as seen by the current transaction
+	 */
+	public long get(int index) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		return getBits(index);
+	}
+
+	/**
+	 * Copy a range of elements as seen by the current transaction into an
+	 * array.
+	 *
+	 * @param index index of the first element to copy
+	 * @param dst array to copy into
+	 * @param offset position in dst of the first element
+	 * @param count number of elements to copy
+	 */
+	public void get(int index, long[] dst, int offset, int count)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		if (offset < 0 || offset > dst.length - count) {
+			throw new IndexOutOfBoundsException();
+		}
+		getRange(index, dst, offset, count);
+	}
+
+	/**
+	 * Set the element at an index when the current transaction commits.
+	 */
+	public void set(int index, long value) throws NoActiveTransactionException {
+		setBits(index, value);
+	}
+
+	/**
+	 * Add a delta to the element at an index.
+	 *
+	 * @return the new value
+	 */
+	public long add(int index, long delta) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		long result = get(index) + delta;
+		set(index, result);
+		return result;
+	}
+
+	@Override
+	long load(int index) {
+		return memory.getLong(index << 3);
+	}
+
+	@Override
+	void store(int index, long bits) {
+		memory.putLong(index << 3, bits);
+	}
+
+	@Override
+	void copy(int index, Object dst, int offset, int length) {
+		long[] values = (long[]) dst;
+		for (int n = 0; n < length; n++) {
+			values[offset + n] = memory.getLong((index + n) << 3);
+		}
+	}
+
+	@Override
+	void overlay(Object dst, int offset, long bits) {
+		((long[]) dst)[offset] = bits;
+	}
+}
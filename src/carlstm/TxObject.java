@@ -1,46 +1,166 @@
 package carlstm;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.*;
 /**
  * A TxObject is a special kind of object that can be read and written as part
  * of a transaction.
- * 
+ *
  * @param <T> type of the value stored in this TxObject
  */
 
 
-public final class TxObject<T> {
-	T value;
-	final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-	final Lock r = readWriteLock.readLock();
-	final Lock w = readWriteLock.writeLock();
+public final class TxObject<T> extends TxCell {
+	volatile T value;
+
 	public TxObject(T value) {
 		this.value = value;
 	}
-	/* when we call the read() method, first we try to acquire the read lock; if we fail to acquire the read lock, then we
-	call abort(). And if it's our first time to call read(), we read from the TxObject.
+	/* when we call the read() method, first we check whether this transaction already has the object in its log; if not,
+	we read the value between two samples of the lock word and abort if the object was locked or updated after we started.
 	* */
+	@SuppressWarnings("unchecked")
 	public T read() throws NoActiveTransactionException,
 			TransactionAbortedException {
-		TxInfo txInfo = ThreadLocalExample.get();
-		if (r.tryLock()) {
-			if (txInfo.hashtable.get(this) == null) {
-				Pair pair = new Pair((Object) this.value, (Object) this.value);
-				txInfo.hashtable.put(this, pair);
-				r.unlock();
+		TxInfo txInfo = TxInfo.current();
+		int slot = logged(txInfo);
+		if (slot >= 0) {
+			byte flag = txInfo.log.flags[slot];
+			if ((flag & TxLog.OWNED) != 0) {
+				// an eager transaction wrote its value into the object itself
 				return value;
 			}
-			r.unlock();
-			return (T) txInfo.hashtable.get(this).curValue;
-		} else {
-			txInfo.abort();
-			return null;
+			if (flag != 0) {
+				return (T) txInfo.log.values[slot];
+			}
 		}
+		if (txInfo.snapshot) {
+			txInfo.contention.opened++;
+			return readSnapshot(txInfo);
+		}
+		long pre = beginRead(txInfo);
+		T result = value;
+		endRead(txInfo, pre);
+		logRead(txInfo, result, 0);
+		return result;
 	}
 
 	public void write(T value) throws NoActiveTransactionException,
 			TransactionAbortedException {
-		TxInfo txInfo = ThreadLocalExample.get();
-		txInfo.hashtable.get(this).curValue = value;
+		logWrite(TxInfo.current(), value, 0);
+	}
+
+	/**
+	 * Release this object early: the current transaction no longer depends
+	 * on the value it read, so a later commit to the object does not abort
+	 * it. Use this when walking a linked structure, to drop the nodes that
+	 * have been passed and do not affect the result. The object is read
+	 * afresh if the transaction reads it again. Releasing an object the
+	 * transaction has written, or has not read, has no effect, and so does
+	 * releasing in a read-only transaction, which keeps no read set.
+	 */
+	public void release() throws NoActiveTransactionException {
+		release(TxInfo.current());
+	}
+
+	/**
+	 * Read the value that was current when a snapshot transaction started. An
+	 * object updated since then, or held by an eager transaction that has not
+	 * started to commit, is read from its history, so the reader only aborts
+	 * if the version it needs has already been reclaimed. Only a lock held by
+	 * a committing transaction, which may stamp a version the reader must
+	 * see, is waited for like a normal read.
+	 */
+	@SuppressWarnings("unchecked")
+	private T readSnapshot(TxInfo txInfo) throws TransactionAbortedException {
+		long readVersion = txInfo.readVersion;
+		for (int spins = 0;; spins++) {
+			long pre = lockWord();
+			boolean locked = isLocked(pre);
+			if (locked && isCommitting(pre)) {
+				if (!txInfo.contentionManager.shouldWait(txInfo.contention, spins)) {
+					throw txInfo.abortWith(AbortCause.LOCKED_ON_READ, this);
+				}
+				continue;
+			}
+			if (locked || version(pre) > readVersion) {
+				// the history starts with the committed value: a commit
+				// records it before releasing the lock, and an eager
+				// transaction before writing in place. An eager owner takes
+				// its write version only after marking the lock, so the
+				// value it is writing is newer than this snapshot.
+				Snapshots.Version older = Snapshots.find(history(), readVersion);
+				if (older != null) {
+					return (T) older.value;
+				}
+				if (!locked) {
+					throw txInfo.abortWith(AbortCause.NEWER_ON_READ, this);
+				}
+				// the eager owner seeds the history right after it locks,
+				// or multi-version mode was only just turned on
+				if (!txInfo.contentionManager.shouldWait(txInfo.contention, spins)) {
+					throw txInfo.abortWith(AbortCause.LOCKED_ON_READ, this);
+				}
+				continue;
+			}
+			T result = value;
+			if (lockWord() == pre) {
+				return result;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	void publish(TxLog log, int slot, long version) {
+		T value = (T) log.values[slot];
+		if (Snapshots.isEnabled()) {
+			Snapshots.Version chain = history();
+			if (chain == null) {
+				// start the chain with the value being replaced; in striped
+				// mode its version is only known to be at most the record's
+				chain = new Snapshots.Version(this.value, version(lockWord()), null);
+			}
+			setHistory(Snapshots.retain(value, version, chain));
+		} else if (history() != null) {
+			// a chain that misses this commit must not be read again if
+			// multi-version mode is turned back on
+			setHistory(null);
+		}
+		this.value = value;
+	}
+
+	@Override
+	void publishInPlace(TxLog log, int slot, long version) {
+		if (Snapshots.isEnabled()) {
+			Snapshots.Version chain = history();
+			if (chain == null) {
+				// the value replaced in place is the one saved for undo, with
+				// the version the cell had when the transaction locked it
+				chain = new Snapshots.Version(log.values[slot],
+						version(log.lockWords[slot]), null);
+			}
+			setHistory(Snapshots.retain(value, version, chain));
+		} else if (history() != null) {
+			setHistory(null);
+		}
+	}
+
+	@Override
+	void lockedInPlace(TxLog log, int slot) {
+		if (Snapshots.isEnabled() && history() == null) {
+			// snapshot readers find the committed value here while the
+			// eager transaction holds the object
+			setHistory(new Snapshots.Version(log.values[slot],
+					version(log.lockWords[slot]), null));
+		}
+	}
+
+	@Override
+	void save(TxLog log, int slot) {
+		log.values[slot] = value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	void store(Object value, long bits) {
+		this.value = (T) value;
 	}
 }
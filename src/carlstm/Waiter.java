@@ -0,0 +1,199 @@
+package carlstm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transaction blocked in {@link CarlSTM#retry()} until another transaction
+ * commits to one of the cells it read. Waiters are registered in a small
+ * table striped by cell hash, and every writing commit wakes the waiters on the
+ * stripes of the cells it wrote. As long as nobody waits, a commit pays a
+ * single volatile read for this.
+ * <p>
+ * A waiter registers before it checks its read set for changes, and a
+ * committer checks for waiters after it has stamped its cells with the new
+ * version, so at least one of the two sees the other and no wakeup is lost.
+ */
+final class Waiter {
+	private static final int STRIPES = 32;
+	/** Stripe for waiters whose read set is unknown; every commit wakes them. */
+	private static final int ANY = STRIPES;
+
+	private static final List<List<Waiter>> stripes =
+			new ArrayList<List<Waiter>>(STRIPES + 1);
+	private static final AtomicInteger waiting = new AtomicInteger();
+
+	static {
+		for (int i = 0; i <= STRIPES; i++) {
+			stripes.add(new ArrayList<Waiter>());
+		}
+	}
+
+	/** Cells read by the transaction, or null if it kept no read set. */
+	private final TxCell[] cells;
+	private final long readVersion;
+	private final Thread thread;
+	/** Task to run instead of unparking a thread, for asynchronous transactions. */
+	private final Runnable resume;
+	private final AtomicBoolean woken = new AtomicBoolean();
+	private long registered;
+
+	/**
+	 * Capture the read set of a transaction that called retry, before its log
+	 * is cleared.
+	 *
+	 * @param resume task to run when woken, or null to park the calling thread
+	 */
+	Waiter(TxInfo txInfo, Runnable resume) {
+		this.readVersion = txInfo.readVersion;
+		this.thread = Thread.currentThread();
+		this.resume = resume;
+		this.cells = txInfo.readOnly ? null : txInfo.readSet();
+	}
+
+	/**
+	 * Block the calling thread until a cell of the read set changes.
+	 *
+	 * @throws TransactionInterruptedException if the thread is interrupted
+	 *             first; the interrupt is left set
+	 */
+	void await() {
+		register();
+		try {
+			while (!woken.get()) {
+				// running the transaction again would only retry and come
+				// straight back here while the interrupt is set
+				if (Thread.currentThread().isInterrupted()) {
+					throw new TransactionInterruptedException();
+				}
+				LockSupport.park(this);
+			}
+		} finally {
+			deregister();
+		}
+	}
+
+	/**
+	 * Make this waiter visible to committers, and wake it at once if its read
+	 * set changed before that.
+	 */
+	void register() {
+		waiting.incrementAndGet();
+		long mask = 0;
+		if (cells == null || cells.length == 0) {
+			mask = 1L << ANY;
+		} else {
+			for (TxCell cell : cells) {
+				mask |= 1L << stripe(cell);
+			}
+		}
+		registered = mask;
+		for (int i = 0; i <= ANY; i++) {
+			if ((mask & (1L << i)) != 0) {
+				synchronized (stripes.get(i)) {
+					stripes.get(i).add(this);
+				}
+			}
+		}
+		if (changed()) {
+			wake();
+		}
+	}
+
+	private void deregister() {
+		for (int i = 0; i <= ANY; i++) {
+			if ((registered & (1L << i)) != 0) {
+				synchronized (stripes.get(i)) {
+					stripes.get(i).remove(this);
+				}
+			}
+		}
+		waiting.decrementAndGet();
+	}
+
+	/**
+	 * @return true if a cell of the read set was committed to, or is being
+	 *         committed to, since the transaction started
+	 */
+	private boolean changed() {
+		if (cells == null || cells.length == 0) {
+			return GlobalClock.now() > readVersion;
+		}
+		for (TxCell cell : cells) {
+			long word = cell.lockWord();
+			if (TxCell.isLocked(word) || TxCell.version(word) > readVersion) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void wake() {
+		if (!woken.compareAndSet(false, true)) {
+			return;
+		}
+		if (resume == null) {
+			LockSupport.unpark(thread);
+		} else {
+			deregister();
+			resume.run();
+		}
+	}
+
+	private static int stripe(TxCell cell) {
+		return cell.hash() & (STRIPES - 1);
+	}
+
+	/**
+	 * Find the stripes a commit has to look at. Called after the written cells
+	 * have been unlocked with their new version.
+	 *
+	 * @return a bit mask of stripes, or 0 if nobody is waiting
+	 */
+	static long stripesOf(TxCell[] keys, int[] slots, int count) {
+		if (waiting.get() == 0) {
+			return 0;
+		}
+		long mask = 1L << ANY;
+		for (int n = 0; n < count; n++) {
+			mask |= 1L << stripe(keys[slots[n]]);
+		}
+		return mask;
+	}
+
+	/**
+	 * Wake the waiters on the given stripes whose read set changed. Called
+	 * once the committing transaction has finished, since an asynchronous
+	 * waiter may resume on the calling thread.
+	 */
+	static void wake(long mask) {
+		if (mask == 0) {
+			return;
+		}
+		ArrayList<Waiter> ready = null;
+		for (int i = 0; i <= ANY; i++) {
+			if ((mask & (1L << i)) == 0) {
+				continue;
+			}
+			synchronized (stripes.get(i)) {
+				for (Waiter waiter : stripes.get(i)) {
+					if (!waiter.woken.get() && waiter.changed()) {
+						if (ready == null) {
+							ready = new ArrayList<Waiter>();
+						}
+						ready.add(waiter);
+					}
+				}
+			}
+		}
+		// wake outside the stripe locks, since waking may deregister
+		if (ready != null) {
+			for (Waiter waiter : ready) {
+				waiter.wake();
+			}
+		}
+	}
+}
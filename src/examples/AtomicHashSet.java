@@ -4,6 +4,7 @@ import carlstm.CarlSTM;
 import carlstm.NoActiveTransactionException;
 import carlstm.Transaction;
 import carlstm.TransactionAbortedException;
+import carlstm.TxArray;
 import carlstm.TxObject;
 
 import java.util.*;
@@ -28,9 +29,10 @@ public class AtomicHashSet<T> implements Set<T> {
         TxObject<T> item;
 
         /**
-         * Next item in the list.
+         * Next item in the list. Buckets are only ever added at the head of a
+         * list, so this never changes once the bucket is in the table.
          */
-        Bucket next;
+        final Bucket<T> next;
 
         /**
          * Create a new bucket.
@@ -38,7 +40,7 @@ public class AtomicHashSet<T> implements Set<T> {
          * @param item item to be stored
          * @param next next item in the list
          */
-        public Bucket(TxObject<T> item, Bucket next) {
+        public Bucket(TxObject<T> item, Bucket<T> next) {
             this.item = item;
             this.next = next;
         }
@@ -46,9 +48,10 @@ public class AtomicHashSet<T> implements Set<T> {
 
     /**
      * Our array of items. Each location in the array stores a linked list items
-     * that hash to that locations.
+     * that hash to that locations. The heads of the lists are transactional, so
+     * two adds to the same location conflict instead of losing one of the items.
      */
-    private Bucket[] table;
+    private final TxArray<Bucket<T>> table;
 
     /**
      * Capacity of the array. Since we do not support resizing, this is a
@@ -56,13 +59,11 @@ public class AtomicHashSet<T> implements Set<T> {
      */
     private static final int CAPACITY = 1024;
 
-    @SuppressWarnings("unchecked")
     /**
      * Create a new HashSet.
      */
     public AtomicHashSet() {
-        this.table = new Bucket[CAPACITY];
-
+        this.table = new TxArray<Bucket<T>>(CAPACITY);
     }
 
     /**
@@ -72,14 +73,18 @@ public class AtomicHashSet<T> implements Set<T> {
      * @param item   item to be searched for
      * @return true if the item is in the bucket
      */
-    private boolean contains(Bucket bucket, T item)throws NoActiveTransactionException,
+    private boolean contains(Bucket<T> bucket, T item)throws NoActiveTransactionException,
             TransactionAbortedException {
         //we used a temp Bucket to walk through the list so as not to disturb the original head of linkedlist
-        Bucket temp = bucket;
+        Bucket<T> temp = bucket;
         while (temp != null) {
             if (item.equals(temp.item.read())) {
                 return true;
             }
+            //a passed node's non-match is part of why we answer false, so its read would normally have to stay valid until commit.
+            //releasing it is safe only because an item cell is never written after its bucket is built: the value we saw cannot change,
+            //and the head we read from the table, which stays in the read set, catches any bucket added in front of it.
+            temp.item.release();
             temp = temp.next;
         }
         return false;
@@ -99,23 +104,14 @@ public class AtomicHashSet<T> implements Set<T> {
             public Boolean run() throws NoActiveTransactionException,
                     TransactionAbortedException {
                 int hash = (itemRef.hashCode() % CAPACITY + CAPACITY) % CAPACITY;
-                TxObject<T> newTxObject = new TxObject<T>(itemRef);
-                //if the head of the linkedlist is null itself, we will just add the item to it and don't bother to verify if it's in the hashset.
-                if (table[hash] == null){
-                    table[hash] = new Bucket(newTxObject, null);
-                    return true;
-                }
-                Bucket bucket = table[hash];
+                Bucket<T> bucket = table.get(hash);
                 //if the hashset contains the item, then we can just return false, since we don't need to add item anyway.
                 if (contains(bucket, itemRef)) {
                     return false;
                 }
-                //if the hashset does not contains the item, it will walk through the linkedlist with the temp bucket and insert it at the end of the list.
-                Bucket temp = bucket;
-                while(temp.next != null) {
-                    temp = temp.next;
-                }
-                temp.next = new Bucket(newTxObject, null);
+                //if the hashset does not contains the item, we insert it at the head of the list through the table,
+                //so the change is buffered and published by the commit like any other transactional write.
+                table.set(hash, new Bucket<T>(new TxObject<T>(itemRef), bucket));
                 return true;
             }
         });
@@ -129,13 +125,14 @@ public class AtomicHashSet<T> implements Set<T> {
     @Override
     //we rewrite our contains method of the transactional hashset version. Here we replace the lock and synchronized code with
     //the transaction we implemented previously. A transanction can be viewed as an atomic block.
+    //contains never writes, so it runs as a read-only transaction and skips the read log and commit locking.
     public boolean contains(T item) {
         final T itemRef = item;
-        Boolean result = CarlSTM.execute(new Transaction<Boolean>() {
+        Boolean result = CarlSTM.executeReadOnly(new Transaction<Boolean>() {
             public Boolean run() throws NoActiveTransactionException,
                     TransactionAbortedException {
                 int hash = (itemRef.hashCode() % CAPACITY + CAPACITY) % CAPACITY;
-                Bucket bucket = table[hash];
+                Bucket<T> bucket = table.get(hash);
                 return contains(bucket, itemRef);
             }
         });
@@ -1,7 +1,90 @@
 package examples;
 
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A stress test for {@link TxHashMap}: many threads insert, look up and
+ * remove overlapping ranges of keys while the map grows from its default
+ * capacity, and the final contents are checked.
+ */
 public class HashMapTransaction{
-    public static void main(String[] args){
+    static final int THREADS = 8;
+    static final int KEYS = 20000;
+
+    /**
+     * A Java Thread that puts a range of keys, reads them back, and removes
+     * the even ones. The phases are separated by a barrier so that the reads
+     * never race with removals.
+     */
+    static class MyThread extends Thread {
+        TxHashMap<Integer, Integer> map;
+        int offset;
+        CyclicBarrier barrier;
+
+        public MyThread(TxHashMap<Integer, Integer> map, int offset, CyclicBarrier barrier){
+            this.map = map;
+            this.offset = offset;
+            this.barrier = barrier;
+        }
+
+        private void await() {
+            try {
+                barrier.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            //neighbouring threads share half of their keys, so puts on the same key race with each other.
+            for (int i = 0; i < KEYS; i++){
+                Integer key = offset + i;
+                map.put(key, key);
+            }
+            await();
+            for (int i = 0; i < KEYS; i++){
+                Integer key = offset + i;
+                if (!key.equals(map.get(key))) {
+                    throw new IllegalStateException("lost key " + key);
+                }
+            }
+            await();
+            for (int i = 0; i < KEYS; i += 2){
+                map.remove(offset + i);
+            }
+        }
+    }
 
+    public static void main(String[] args) throws InterruptedException{
+        MyThread[] array = new MyThread[THREADS];
+        TxHashMap<Integer, Integer> map = new TxHashMap<Integer, Integer>();
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < array.length; i++){
+            array[i] = new MyThread(map, i * KEYS / 2, barrier);
+            array[i].start();
+        }
+        for (int i = 0; i < array.length; i++){
+            array[i].join();
+        }
+        long endTime = System.currentTimeMillis();
+        //every offset is even, so exactly the even keys were removed.
+        int expected = 0;
+        int maxKey = (THREADS - 1) * KEYS / 2 + KEYS;
+        for (int key = 0; key < maxKey; key++) {
+            boolean present = map.get(key) != null;
+            if (present != (key % 2 == 1)) {
+                throw new IllegalStateException("wrong state for key " + key);
+            }
+            if (present) {
+                expected++;
+            }
+        }
+        System.out.println("size " + map.size() + " (expected " + expected + ") in "
+                + (endTime - startTime) + "ms");
     }
-}
\ No newline at end of file
+}
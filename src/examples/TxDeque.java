@@ -0,0 +1,278 @@
+package examples;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxLong;
+import carlstm.TxObject;
+
+/**
+ * A double-ended queue built on CarlSTM, optionally bounded.
+ * <p>
+ * The items sit in a doubly linked list. An operation at the front only
+ * touches the front cell, the first two nodes and their links toward the
+ * front; an operation at the back touches the mirror image. With three or
+ * more items the two ends therefore touch disjoint cells and never abort
+ * each other. Operations at the same end do conflict.
+ * <p>
+ * Each end also keeps its own count of items added minus items removed
+ * there, and a bounded deque hands each end a share of the free room. An end
+ * that has used up its share recomputes the free room from both counts and
+ * splits it between the two ends again, so the ends only meet once per share.
+ * <p>
+ * Every operation is a transaction of its own, or part of the enclosing one
+ * when called inside a transaction. The blocking operations wait with
+ * {@link CarlSTM#retry()}. Null items are not allowed.
+ *
+ * @param <T> type of the items
+ */
+public class TxDeque<T> {
+    private static final class Node<T> {
+        final T item;
+        /** Neighbour toward the front, or null for the first node. */
+        final TxObject<Node<T>> prev;
+        /** Neighbour toward the back, or null for the last node. */
+        final TxObject<Node<T>> next;
+
+        Node(T item, Node<T> prev, Node<T> next) {
+            this.item = item;
+            this.prev = new TxObject<Node<T>>(prev);
+            this.next = new TxObject<Node<T>>(next);
+        }
+    }
+
+    /** The first node, or null if the deque is empty. */
+    private final TxObject<Node<T>> first = new TxObject<Node<T>>(null);
+    /** The last node, or null if the deque is empty. */
+    private final TxObject<Node<T>> last = new TxObject<Node<T>>(null);
+    /** Items added minus items removed at each end. */
+    private final TxLong frontCount = new TxLong(0);
+    private final TxLong backCount = new TxLong(0);
+    /** Free room each end can use before it looks at the other end. */
+    private final TxLong frontRoom;
+    private final TxLong backRoom;
+    private final int capacity;
+
+    /**
+     * Create an unbounded deque.
+     */
+    public TxDeque() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a deque that holds at most the given number of items.
+     */
+    public TxDeque(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.frontRoom = new TxLong(capacity - capacity / 2);
+        this.backRoom = new TxLong(capacity / 2);
+    }
+
+    /**
+     * Add an item at the front if there is room.
+     *
+     * @return false if the deque is full
+     */
+    public boolean offerFirst(final T item) {
+        return add(item, true, false);
+    }
+
+    /**
+     * Add an item at the back if there is room.
+     *
+     * @return false if the deque is full
+     */
+    public boolean offerLast(final T item) {
+        return add(item, false, false);
+    }
+
+    /**
+     * Add an item at the front, waiting for room if the deque is full.
+     */
+    public void putFirst(T item) {
+        add(item, true, true);
+    }
+
+    /**
+     * Add an item at the back, waiting for room if the deque is full.
+     */
+    public void putLast(T item) {
+        add(item, false, true);
+    }
+
+    /**
+     * Remove the item at the front.
+     *
+     * @return the item, or null if the deque is empty
+     */
+    public T pollFirst() {
+        return remove(true, false);
+    }
+
+    /**
+     * Remove the item at the back.
+     *
+     * @return the item, or null if the deque is empty
+     */
+    public T pollLast() {
+        return remove(false, false);
+    }
+
+    /**
+     * Remove the item at the front, waiting for one if the deque is empty.
+     */
+    public T takeFirst() {
+        return remove(true, true);
+    }
+
+    /**
+     * Remove the item at the back, waiting for one if the deque is empty.
+     */
+    public T takeLast() {
+        return remove(false, true);
+    }
+
+    /**
+     * @return the item at the front without removing it, or null if the
+     *         deque is empty
+     */
+    public T peekFirst() {
+        return peek(first);
+    }
+
+    /**
+     * @return the item at the back without removing it, or null if the deque
+     *         is empty
+     */
+    public T peekLast() {
+        return peek(last);
+    }
+
+    /**
+     * @return the number of items, from the counts of both ends
+     */
+    public int size() {
+        return CarlSTM.executeReadOnly(new Transaction<Integer>() {
+            public Integer run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return (int) (frontCount.get() + backCount.get());
+            }
+        });
+    }
+
+    /**
+     * @return true if the deque holds no item
+     */
+    public boolean isEmpty() {
+        return peekFirst() == null;
+    }
+
+    /**
+     * @return the number of items the deque can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean add(final T item, final boolean atFront, final boolean block) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        return CarlSTM.execute(new Transaction<Boolean>() {
+            public Boolean run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                TxLong room = atFront ? frontRoom : backRoom;
+                TxLong otherRoom = atFront ? backRoom : frontRoom;
+                if (!reserve(room, otherRoom, block)) {
+                    return false;
+                }
+                TxObject<Node<T>> end = atFront ? first : last;
+                TxObject<Node<T>> otherEnd = atFront ? last : first;
+                Node<T> old = end.read();
+                Node<T> node = atFront ? new Node<T>(item, null, old)
+                        : new Node<T>(item, old, null);
+                end.write(node);
+                if (old == null) {
+                    otherEnd.write(node);
+                } else if (atFront) {
+                    old.prev.write(node);
+                } else {
+                    old.next.write(node);
+                }
+                (atFront ? frontCount : backCount).increment();
+                return true;
+            }
+        });
+    }
+
+    private T remove(final boolean atFront, final boolean block) {
+        return CarlSTM.execute(new Transaction<T>() {
+            public T run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                TxObject<Node<T>> end = atFront ? first : last;
+                Node<T> node = end.read();
+                if (node == null) {
+                    if (block) {
+                        CarlSTM.retry();
+                    }
+                    return null;
+                }
+                Node<T> neighbour = (atFront ? node.next : node.prev).read();
+                end.write(neighbour);
+                if (neighbour == null) {
+                    (atFront ? last : first).write(null);
+                } else if (atFront) {
+                    neighbour.prev.write(null);
+                } else {
+                    neighbour.next.write(null);
+                }
+                (atFront ? frontCount : backCount).add(-1);
+                return node.item;
+            }
+        });
+    }
+
+    private T peek(final TxObject<Node<T>> end) {
+        return CarlSTM.executeReadOnly(new Transaction<T>() {
+            public T run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<T> node = end.read();
+                return node == null ? null : node.item;
+            }
+        });
+    }
+
+    /**
+     * Take one unit of free room for an insert at one end. An end that has
+     * used up its share splits the room freed since between both ends.
+     *
+     * @return false if the deque is full and the caller does not block
+     */
+    private boolean reserve(TxLong room, TxLong otherRoom, boolean block)
+            throws NoActiveTransactionException, TransactionAbortedException {
+        if (capacity == Integer.MAX_VALUE) {
+            return true;
+        }
+        long free = room.get();
+        if (free == 0) {
+            // the free room includes what the other end has not used yet
+            free = capacity - (frontCount.get() + backCount.get());
+            if (free == 0) {
+                if (block) {
+                    CarlSTM.retry();
+                }
+                return false;
+            }
+            long share = free - free / 2;
+            otherRoom.set(free - share);
+            free = share;
+        }
+        room.set(free - 1);
+        return true;
+    }
+}
@@ -0,0 +1,412 @@
+package examples;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxInt;
+import carlstm.TxObject;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A resizable hash map built on CarlSTM. Unlike {@link AtomicHashSet}, every
+ * piece of shared state is transactional: the current table, the bucket
+ * heads and the links between the nodes of a chain are all {@link TxObject}s,
+ * so an operation changes nothing until its transaction commits.
+ * <p>
+ * The table doubles once the map holds more than 3/4 as many entries as it
+ * has buckets. Growing does not happen in one transaction: starting a resize
+ * only allocates the new table, and the buckets are then moved a few at a
+ * time, either by a writer that needs a bucket that has not moved yet or by
+ * the small transaction each writer runs after its own to move the next
+ * chunk. While a resize is in progress a moved bucket holds the
+ * {@link #FORWARD} marker, and lookups continue in the new table.
+ * <p>
+ * Neither keys nor values may be null.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class TxHashMap<K, V> {
+    /**
+     * Entry in a chain. The key is fixed; the value and the link to the next
+     * node are transactional.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final int hash;
+        final TxObject<V> value;
+        final TxObject<Node<K, V>> next;
+
+        Node(K key, int hash, TxObject<V> value, Node<K, V> next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = new TxObject<Node<K, V>>(next);
+        }
+    }
+
+    /**
+     * An array of bucket heads. The array itself never changes; only the
+     * heads do.
+     */
+    private static final class Table<K, V> {
+        final TxObject<Node<K, V>>[] buckets;
+
+        Table(int capacity) {
+            buckets = newArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                buckets[i] = new TxObject<Node<K, V>>(null);
+            }
+        }
+    }
+
+    /**
+     * Java cannot create an array of a generic type, so create one of the
+     * wildcard type. The cast is safe because every element is set to a
+     * {@code TxObject<T>} before the array is used.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> TxObject<T>[] newArray(int length) {
+        return (TxObject<T>[]) new TxObject<?>[length];
+    }
+
+    /**
+     * Head of a bucket that has been moved to the next table.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final Node FORWARD = new Node<Object, Object>(null, 0, null, null);
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Number of buckets moved by the helping transaction after each write.
+     */
+    private static final int TRANSFER_CHUNK = 16;
+
+    private final TxObject<Table<K, V>> table;
+    /** The table being grown into, or null if no resize is in progress. */
+    private final TxObject<Table<K, V>> nextTable = new TxObject<Table<K, V>>(null);
+    /** Index of the first bucket of the current table not yet claimed by a helper. */
+    private final TxInt transferIndex = new TxInt(0);
+
+    /**
+     * Number of entries, updated after each committed insert or removal. It is
+     * only used to decide when to grow, so it does not have to be
+     * transactional, and keeping it outside the STM keeps writers from
+     * conflicting on a shared counter. Writes update it from
+     * {@link CarlSTM#afterCommit}, so a write inside an enclosing transaction
+     * only counts once that transaction commits.
+     */
+    private final LongAdder count = new LongAdder();
+    /** Capacity of the current table, kept for the resize check. */
+    private volatile int capacity;
+    /**
+     * True from the start of a resize until the last bucket has moved. Only
+     * a hint: a helper that finds no resize in progress clears it.
+     */
+    private volatile boolean resizing;
+
+    /**
+     * Create an empty map with the default capacity.
+     */
+    public TxHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty map.
+     *
+     * @param initialCapacity number of buckets to start with; rounded up to a
+     *            power of two
+     */
+    public TxHashMap(int initialCapacity) {
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.capacity = capacity;
+        this.table = new TxObject<Table<K, V>>(new Table<K, V>(capacity));
+    }
+
+    /**
+     * Spread the high bits of the hash code into the low bits, since the
+     * bucket index only uses the low bits.
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Find the bucket a key belongs to. If the table is being resized, a
+     * writer moves the key's bucket to the new table first, so that it only
+     * ever changes the new table.
+     */
+    @SuppressWarnings("unchecked")
+    private TxObject<Node<K, V>> bucket(int hash, boolean forWrite)
+            throws NoActiveTransactionException, TransactionAbortedException {
+        Table<K, V> current = table.read();
+        int index = hash & (current.buckets.length - 1);
+        TxObject<Node<K, V>> head = current.buckets[index];
+        Node<K, V> first = head.read();
+        if (first != FORWARD && !forWrite) {
+            return head;
+        }
+        Table<K, V> next = nextTable.read();
+        if (next == null) {
+            return head;
+        }
+        if (first != FORWARD) {
+            transfer(current, index, next);
+        }
+        return next.buckets[hash & (next.buckets.length - 1)];
+    }
+
+    /**
+     * Move the chain of one bucket of the current table into the two buckets
+     * of the next table it splits into, and leave a forwarding marker behind.
+     */
+    @SuppressWarnings("unchecked")
+    private void transfer(Table<K, V> current, int index, Table<K, V> next)
+            throws NoActiveTransactionException, TransactionAbortedException {
+        TxObject<Node<K, V>> head = current.buckets[index];
+        Node<K, V> node = head.read();
+        if (node == FORWARD) {
+            return;
+        }
+        int oldCapacity = current.buckets.length;
+        TxObject<Node<K, V>> low = next.buckets[index];
+        TxObject<Node<K, V>> high = next.buckets[index + oldCapacity];
+        Node<K, V> lowChain = low.read();
+        Node<K, V> highChain = high.read();
+        while (node != null) {
+            if ((node.hash & oldCapacity) == 0) {
+                lowChain = new Node<K, V>(node.key, node.hash, node.value, lowChain);
+            } else {
+                highChain = new Node<K, V>(node.key, node.hash, node.value, highChain);
+            }
+            node = node.next.read();
+        }
+        low.write(lowChain);
+        high.write(highChain);
+        head.write(FORWARD);
+    }
+
+    /**
+     * @return the node holding the key in the given chain, or null
+     */
+    private Node<K, V> find(Node<K, V> node, Object key, int hash)
+            throws NoActiveTransactionException, TransactionAbortedException {
+        while (node != null) {
+            if (node.hash == hash && key.equals(node.key)) {
+                return node;
+            }
+            node = node.next.read();
+        }
+        return null;
+    }
+
+    /**
+     * @return the value stored for the key, or null if there is none
+     */
+    public V get(final Object key) {
+        final int hash = hash(key);
+        return CarlSTM.executeReadOnly(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> node = find(bucket(hash, false).read(), key, hash);
+                return node == null ? null : node.value.read();
+            }
+        });
+    }
+
+    /**
+     * @return true if the map holds a value for the key
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Store a value for a key.
+     *
+     * @return the value previously stored for the key, or null
+     */
+    public V put(final K key, final V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        final int hash = hash(key);
+        V previous = CarlSTM.execute(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                TxObject<Node<K, V>> head = bucket(hash, true);
+                Node<K, V> first = head.read();
+                Node<K, V> node = find(first, key, hash);
+                if (node != null) {
+                    V old = node.value.read();
+                    node.value.write(value);
+                    afterCommit(0);
+                    return old;
+                }
+                head.write(new Node<K, V>(key, hash, new TxObject<V>(value), first));
+                afterCommit(1);
+                return null;
+            }
+        });
+        return previous;
+    }
+
+    /**
+     * Remove the value stored for a key.
+     *
+     * @return the removed value, or null if there was none
+     */
+    public V remove(final Object key) {
+        final int hash = hash(key);
+        V previous = CarlSTM.execute(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                TxObject<Node<K, V>> link = bucket(hash, true);
+                Node<K, V> node = link.read();
+                while (node != null) {
+                    if (node.hash == hash && key.equals(node.key)) {
+                        link.write(node.next.read());
+                        afterCommit(-1);
+                        return node.value.read();
+                    }
+                    link = node.next;
+                    node = link.read();
+                }
+                afterCommit(0);
+                return null;
+            }
+        });
+        return previous;
+    }
+
+    /**
+     * Return the value stored for a key, computing and storing it first if
+     * there is none. The function runs inside the transaction, so it may run
+     * more than once if the transaction aborts.
+     *
+     * @return the existing or computed value, or null if the function returned
+     *         null
+     */
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> function) {
+        final int hash = hash(key);
+        return CarlSTM.execute(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                TxObject<Node<K, V>> head = bucket(hash, true);
+                Node<K, V> first = head.read();
+                Node<K, V> node = find(first, key, hash);
+                if (node != null) {
+                    return node.value.read();
+                }
+                V value = function.apply(key);
+                if (value != null) {
+                    head.write(new Node<K, V>(key, hash, new TxObject<V>(value), first));
+                    afterCommit(1);
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * @return the number of entries, counting every committed insert and
+     *         removal
+     */
+    public int size() {
+        return (int) count.sum();
+    }
+
+    /**
+     * Call {@link #afterWrite(int)} once the current transaction commits.
+     */
+    private void afterCommit(final int delta) throws NoActiveTransactionException {
+        CarlSTM.afterCommit(new Runnable() {
+            public void run() {
+                afterWrite(delta);
+            }
+        });
+    }
+
+    /**
+     * Account for a committed write, start a resize if the map has grown too
+     * full, and help an ongoing resize along. Runs after the commit, outside
+     * any transaction.
+     */
+    private void afterWrite(int delta) {
+        if (delta != 0) {
+            count.add(delta);
+        }
+        if (!resizing && count.sum() > capacity - (capacity >>> 2)) {
+            startResize();
+        }
+        if (resizing) {
+            helpResize();
+        }
+    }
+
+    private void startResize() {
+        final int expected = capacity;
+        boolean started = CarlSTM.execute(new Transaction<Boolean>() {
+            public Boolean run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Table<K, V> current = table.read();
+                if (nextTable.read() != null) {
+                    // another writer started it; help it along
+                    return true;
+                }
+                if (current.buckets.length != expected) {
+                    return false;
+                }
+                nextTable.write(new Table<K, V>(current.buckets.length * 2));
+                transferIndex.set(0);
+                return true;
+            }
+        });
+        if (started) {
+            resizing = true;
+        }
+    }
+
+    /**
+     * Move the next chunk of buckets. The helper that moves the last chunk
+     * installs the new table.
+     */
+    private void helpResize() {
+        Table<K, V> installed = CarlSTM.execute(new Transaction<Table<K, V>>() {
+            public Table<K, V> run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Table<K, V> next = nextTable.read();
+                Table<K, V> current = table.read();
+                if (next == null) {
+                    // the resize is over, or never started
+                    return current;
+                }
+                int start = transferIndex.get();
+                int end = Math.min(start + TRANSFER_CHUNK, current.buckets.length);
+                for (int i = start; i < end; i++) {
+                    transfer(current, i, next);
+                }
+                transferIndex.set(end);
+                if (end < current.buckets.length) {
+                    return null;
+                }
+                table.write(next);
+                nextTable.write(null);
+                return next;
+            }
+        });
+        if (installed != null) {
+            capacity = installed.buckets.length;
+            resizing = false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package examples;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxLong;
+import carlstm.TxObject;
+
+/**
+ * A first-in first-out queue built on CarlSTM, optionally bounded.
+ * <p>
+ * The items sit in a singly linked list that starts with a dummy node.
+ * Consumers read the head cell and the dummy's successor and move the head
+ * on, so the first item's node becomes the new dummy. Producers read the tail
+ * cell and link a new node after the last one. As long as the queue is not
+ * empty the dummy and the last node differ, so producers and consumers touch
+ * disjoint cells and never abort each other; only producers conflict with
+ * producers and consumers with consumers.
+ * <p>
+ * There is no shared size either. Each side counts its own operations, and a
+ * bounded queue keeps the producers' free room in a cell of their own: a
+ * producer only reads the consumers' count when that room is used up, to
+ * work out how much the consumers have freed since.
+ * <p>
+ * Every operation is a transaction of its own, or part of the enclosing one
+ * when called inside a transaction. {@link #take()} and {@link #put(Object)}
+ * wait with {@link CarlSTM#retry()}, so a blocked consumer sleeps until a
+ * producer commits, and an operation inside {@link CarlSTM#orElse} moves on
+ * to the next alternative instead of blocking. Null items are not allowed.
+ *
+ * @param <T> type of the items
+ */
+public class TxQueue<T> {
+    private static final class Node<T> {
+        final T item;
+        final TxObject<Node<T>> next = new TxObject<Node<T>>(null);
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+
+    /** The dummy node before the first item. Written by consumers only. */
+    private final TxObject<Node<T>> head;
+    /** The last node. Written by producers only. */
+    private final TxObject<Node<T>> tail;
+    /** Number of items ever added. Written by producers only. */
+    private final TxLong puts = new TxLong(0);
+    /** Number of items ever removed. Written by consumers only. */
+    private final TxLong takes = new TxLong(0);
+    /** Free room producers can use before they look at {@link #takes}. */
+    private final TxLong room;
+    private final int capacity;
+
+    /**
+     * Create an unbounded queue.
+     */
+    public TxQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a queue that holds at most the given number of items.
+     */
+    public TxQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        Node<T> dummy = new Node<T>(null);
+        this.head = new TxObject<Node<T>>(dummy);
+        this.tail = new TxObject<Node<T>>(dummy);
+        this.capacity = capacity;
+        this.room = new TxLong(capacity);
+    }
+
+    /**
+     * Add an item at the tail if there is room.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(final T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        return CarlSTM.execute(new Transaction<Boolean>() {
+            public Boolean run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return enqueue(item, false);
+            }
+        });
+    }
+
+    /**
+     * Add an item at the tail, waiting for room if the queue is full.
+     */
+    public void put(final T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        CarlSTM.execute(new Transaction<Boolean>() {
+            public Boolean run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return enqueue(item, true);
+            }
+        });
+    }
+
+    /**
+     * Remove the item at the head.
+     *
+     * @return the item, or null if the queue is empty
+     */
+    public T poll() {
+        return CarlSTM.execute(new Transaction<T>() {
+            public T run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return dequeue(false);
+            }
+        });
+    }
+
+    /**
+     * Remove the item at the head, waiting for one if the queue is empty.
+     *
+     * @return the item
+     */
+    public T take() {
+        return CarlSTM.execute(new Transaction<T>() {
+            public T run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return dequeue(true);
+            }
+        });
+    }
+
+    /**
+     * @return the item at the head without removing it, or null if the queue
+     *         is empty
+     */
+    public T peek() {
+        return CarlSTM.executeReadOnly(new Transaction<T>() {
+            public T run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<T> first = head.read().next.read();
+                return first == null ? null : first.item;
+            }
+        });
+    }
+
+    /**
+     * @return the number of items. This reads the counts of both sides, so
+     *         it conflicts with producers and consumers alike when called
+     *         inside a writing transaction.
+     */
+    public int size() {
+        return CarlSTM.executeReadOnly(new Transaction<Integer>() {
+            public Integer run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                return (int) (puts.get() - takes.get());
+            }
+        });
+    }
+
+    /**
+     * @return true if the queue holds no item
+     */
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * @return the number of items the queue can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean enqueue(T item, boolean block)
+            throws NoActiveTransactionException, TransactionAbortedException {
+        if (capacity != Integer.MAX_VALUE) {
+            long free = room.get();
+            if (free == 0) {
+                // only now look at how much the consumers have freed
+                free = capacity - (puts.get() - takes.get());
+                if (free == 0) {
+                    if (block) {
+                        CarlSTM.retry();
+                    }
+                    return false;
+                }
+            }
+            room.set(free - 1);
+        }
+        Node<T> node = new Node<T>(item);
+        tail.read().next.write(node);
+        tail.write(node);
+        puts.increment();
+        return true;
+    }
+
+    private T dequeue(boolean block) throws NoActiveTransactionException,
+            TransactionAbortedException {
+        Node<T> first = head.read().next.read();
+        if (first == null) {
+            if (block) {
+                CarlSTM.retry();
+            }
+            return null;
+        }
+        head.write(first);
+        takes.increment();
+        return first.item;
+    }
+}
@@ -0,0 +1,310 @@
+package examples;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+import carlstm.TxBoolean;
+import carlstm.TxObject;
+
+import java.util.Comparator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An ordered map built on CarlSTM, implemented as a skip list.
+ * <p>
+ * Only the bottom level of the skip list is transactional: the link from
+ * each node to the next one, the value, and a deleted flag are
+ * {@link TxObject}s. The index levels above it are plain lock-free lists that
+ * serve as hints for where to start the transactional walk. A search descends
+ * the index outside the transaction to the last node before the key, and the
+ * transaction then reads that node's deleted flag and walks the bottom level
+ * from there. So an operation's read set is the few nodes just before its
+ * key, and an insert or remove only conflicts with operations on its
+ * immediate neighbours, never with operations that merely passed through the
+ * same index towers. A new node is linked into the index once its
+ * transaction has committed, from {@link CarlSTM#afterCommit}, so that
+ * inside an enclosing transaction it waits for the outermost commit. Removed
+ * nodes are unlinked from the index lazily
+ * by later searches; a stale or missing index entry only costs a longer
+ * walk.
+ * <p>
+ * Neither keys nor values may be null.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class TxSkipListMap<K, V> {
+    private static final int MAX_LEVEL = 32;
+
+    private static final class Node<K, V> {
+        final K key;
+        final TxObject<V> value;
+        final TxObject<Node<K, V>> next;
+        /** Transactional deleted flag, set by the transaction that removes the node. */
+        final TxBoolean deleted;
+        /** Set once the removal has committed, so index searches skip the node. */
+        volatile boolean removed;
+        /** Successor in each index level above the bottom one. */
+        final AtomicReferenceArray<Node<K, V>> index;
+
+        Node(K key, V value, Node<K, V> next, int height) {
+            this.key = key;
+            this.value = new TxObject<V>(value);
+            this.next = new TxObject<Node<K, V>>(next);
+            this.deleted = new TxBoolean(false);
+            this.index = new AtomicReferenceArray<Node<K, V>>(height);
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> head = new Node<K, V>(null, null, null, MAX_LEVEL);
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Create an empty map ordered by the natural ordering of the keys.
+     */
+    public TxSkipListMap() {
+        this(null);
+    }
+
+    /**
+     * Create an empty map ordered by the given comparator.
+     */
+    public TxSkipListMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(K a, K b) {
+        if (comparator != null) {
+            return comparator.compare(a, b);
+        }
+        return ((Comparable<? super K>) a).compareTo(b);
+    }
+
+    /**
+     * Descend the index, outside of any transaction, to the last node at the
+     * given level whose key is smaller than the key. Removed nodes met on the
+     * way are unlinked.
+     */
+    private Node<K, V> indexSearch(K key, int stopLevel) {
+        Node<K, V> x = head;
+        for (int level = MAX_LEVEL - 1; level >= stopLevel; level--) {
+            while (true) {
+                Node<K, V> next = x.index.get(level);
+                if (next == null) {
+                    break;
+                }
+                if (next.removed) {
+                    x.index.compareAndSet(level, next, next.index.get(level));
+                    continue;
+                }
+                if (compare(next.key, key) >= 0) {
+                    break;
+                }
+                x = next;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * @return the last node whose key is smaller than the key, or the head
+     */
+    private Node<K, V> predecessor(K key) throws NoActiveTransactionException,
+            TransactionAbortedException {
+        Node<K, V> pred;
+        while (true) {
+            pred = indexSearch(key, 0);
+            if (pred == head || !pred.deleted.get()) {
+                break;
+            }
+            // the removal has committed but its remover has not flagged the
+            // node yet; flag it ourselves so the next search skips it
+            pred.removed = true;
+        }
+        Node<K, V> cur = pred.next.read();
+        while (cur != null && compare(cur.key, key) < 0) {
+            pred = cur;
+            cur = cur.next.read();
+        }
+        return pred;
+    }
+
+    /**
+     * @return the value stored for the key, or null if there is none
+     */
+    public V get(final K key) {
+        return CarlSTM.executeReadOnly(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> cur = predecessor(key).next.read();
+                if (cur != null && compare(cur.key, key) == 0) {
+                    return cur.value.read();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Store a value for a key.
+     *
+     * @return the value previously stored for the key, or null
+     */
+    public V put(final K key, final V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        final int height = randomHeight();
+        return CarlSTM.execute(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> pred = predecessor(key);
+                Node<K, V> cur = pred.next.read();
+                if (cur != null && compare(cur.key, key) == 0) {
+                    V old = cur.value.read();
+                    cur.value.write(value);
+                    return old;
+                }
+                final Node<K, V> node = new Node<K, V>(key, value, cur, height);
+                // writing the flag stamps it with this commit's version, so a
+                // transaction that started earlier and finds the node through
+                // the index aborts instead of seeing a node it should not see
+                node.deleted.set(false);
+                pred.next.write(node);
+                CarlSTM.afterCommit(new Runnable() {
+                    public void run() {
+                        count.increment();
+                        linkIndex(node);
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remove the value stored for a key.
+     *
+     * @return the removed value, or null if there was none
+     */
+    public V remove(final K key) {
+        return CarlSTM.execute(new Transaction<V>() {
+            public V run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> pred = predecessor(key);
+                final Node<K, V> cur = pred.next.read();
+                if (cur == null || compare(cur.key, key) != 0) {
+                    return null;
+                }
+                cur.deleted.set(true);
+                pred.next.write(cur.next.read());
+                CarlSTM.afterCommit(new Runnable() {
+                    public void run() {
+                        count.decrement();
+                        cur.removed = true;
+                    }
+                });
+                return cur.value.read();
+            }
+        });
+    }
+
+    /**
+     * @return the greatest key less than or equal to the given key, or null
+     */
+    public K floorKey(final K key) {
+        return CarlSTM.executeReadOnly(new Transaction<K>() {
+            public K run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> pred = predecessor(key);
+                Node<K, V> cur = pred.next.read();
+                if (cur != null && compare(cur.key, key) == 0) {
+                    return cur.key;
+                }
+                return pred == head ? null : pred.key;
+            }
+        });
+    }
+
+    /**
+     * @return the least key greater than or equal to the given key, or null
+     */
+    public K ceilingKey(final K key) {
+        return CarlSTM.executeReadOnly(new Transaction<K>() {
+            public K run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                Node<K, V> cur = predecessor(key).next.read();
+                return cur == null ? null : cur.key;
+            }
+        });
+    }
+
+    /**
+     * Copy the entries with keys from fromKey (inclusive) to toKey (exclusive)
+     * in a single transaction, so the result is a consistent snapshot of the
+     * range.
+     *
+     * @return the entries of the range, in key order
+     */
+    public SortedMap<K, V> subMap(final K fromKey, final K toKey) {
+        return CarlSTM.executeReadOnly(new Transaction<SortedMap<K, V>>() {
+            public SortedMap<K, V> run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                SortedMap<K, V> range = new TreeMap<K, V>(comparator);
+                Node<K, V> cur = predecessor(fromKey).next.read();
+                while (cur != null && compare(cur.key, toKey) < 0) {
+                    range.put(cur.key, cur.value.read());
+                    cur = cur.next.read();
+                }
+                return range;
+            }
+        });
+    }
+
+    /**
+     * @return the number of entries, counting every committed insert and
+     *         removal
+     */
+    public int size() {
+        return (int) count.sum();
+    }
+
+    /**
+     * Link a committed node into the index levels of its tower, bottom up.
+     * A lost race only leaves the node out of a level, which is harmless.
+     */
+    private void linkIndex(Node<K, V> node) {
+        for (int level = 0; level < node.index.length(); level++) {
+            while (true) {
+                if (node.removed) {
+                    return;
+                }
+                Node<K, V> pred = indexSearch(node.key, level);
+                Node<K, V> succ = pred.index.get(level);
+                if (succ == node) {
+                    break;
+                }
+                node.index.set(level, succ);
+                if (pred.index.compareAndSet(level, succ, node)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of index levels for a new node: 0 with probability
+     *         1/2, 1 with probability 1/4, and so on
+     */
+    private static int randomHeight() {
+        int bits = ThreadLocalRandom.current().nextInt();
+        return Math.min(Integer.numberOfTrailingZeros(~bits), MAX_LEVEL);
+    }
+}
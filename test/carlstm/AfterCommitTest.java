@@ -0,0 +1,118 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Actions added with {@link CarlSTM#afterCommit} run once the outermost
+ * transaction commits, and only for the work that committed.
+ */
+public class AfterCommitTest {
+	static Runnable record(final List<String> log, final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				log.add(name);
+			}
+		};
+	}
+
+	@Test
+	public void actionsRunAfterOutermostCommit() {
+		final List<String> log = new ArrayList<String>();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				CarlSTM.afterCommit(record(log, "outer"));
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						CarlSTM.afterCommit(record(log, "nested"));
+						return null;
+					}
+				});
+				// nothing runs before the enclosing transaction commits
+				assertEquals(0, log.size());
+				return null;
+			}
+		});
+		assertEquals(Arrays.asList("outer", "nested"), log);
+	}
+
+	@Test
+	public void actionsOfRolledBackWorkAreDropped() {
+		final List<String> log = new ArrayList<String>();
+		final int[] attempts = new int[1];
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				CarlSTM.afterCommit(record(log, "attempt " + ++attempts[0]));
+				try {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							CarlSTM.afterCommit(record(log, "failed"));
+							throw new IllegalStateException();
+						}
+					});
+				} catch (IllegalStateException e) {
+				}
+				CarlSTM.orElse(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						CarlSTM.afterCommit(record(log, "retried"));
+						CarlSTM.retry();
+						return null;
+					}
+				}, new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						return null;
+					}
+				});
+				if (attempts[0] == 1) {
+					throw new TransactionAbortedException();
+				}
+				return null;
+			}
+		});
+		assertEquals(Arrays.asList("attempt 2"), log);
+	}
+
+	@Test
+	public void actionOfAbortedTransactionDoesNotRun() {
+		final List<String> log = new ArrayList<String>();
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					CarlSTM.afterCommit(record(log, "aborted"));
+					throw new IllegalArgumentException();
+				}
+			});
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// nor after the next commit on the thread
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() {
+				return null;
+			}
+		});
+		assertEquals(0, log.size());
+	}
+}
@@ -0,0 +1,120 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Members of {@link CarlSTM#executeBatch} are atomic on their own: a member
+ * that conflicts runs again without the others, and one that throws takes
+ * only the uncommitted members with it.
+ */
+public class BatchTest {
+	static Transaction<Integer> increment(final TxObject<Integer> object,
+			final AtomicInteger runs) {
+		return new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				runs.incrementAndGet();
+				int value = object.read() + 1;
+				object.write(value);
+				return value;
+			}
+		};
+	}
+
+	@Test
+	public void conflictingMemberRunsAgainAlone() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final TxObject<Integer> changed = new TxObject<Integer>(0);
+		final AtomicInteger firstRuns = new AtomicInteger();
+		final AtomicInteger secondRuns = new AtomicInteger();
+		final AtomicInteger thirdRuns = new AtomicInteger();
+		List<Transaction<?>> batch = new ArrayList<Transaction<?>>();
+		batch.add(increment(x, firstRuns));
+		batch.add(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				if (secondRuns.incrementAndGet() == 1) {
+					OrElseTest.commitElsewhere(changed);
+				}
+				return changed.read();
+			}
+		});
+		batch.add(increment(y, thirdRuns));
+		List<Object> results = CarlSTM.executeBatch(batch);
+		assertEquals(Arrays.<Object>asList(1, 1, 1), results);
+		assertEquals(1, firstRuns.get());
+		assertEquals(2, secondRuns.get());
+		assertEquals(1, thirdRuns.get());
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+		assertEquals(Integer.valueOf(1), OrElseTest.read(y));
+	}
+
+	@Test
+	public void memberCatchingFailedAlternativeKeepsOnlyItsOwnWrites() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final TxObject<Integer> z = new TxObject<Integer>(0);
+		List<Transaction<?>> batch = new ArrayList<Transaction<?>>();
+		batch.add(increment(x, new AtomicInteger()));
+		batch.add(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				try {
+					CarlSTM.orElse(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							y.write(1);
+							throw new IllegalStateException();
+						}
+					}, null);
+					fail();
+				} catch (IllegalStateException e) {
+				}
+				z.write(2);
+				return 2;
+			}
+		});
+		batch.add(increment(x, new AtomicInteger()));
+		List<Object> results = CarlSTM.executeBatch(batch);
+		assertEquals(Arrays.<Object>asList(1, 2, 2), results);
+		assertEquals(Integer.valueOf(2), OrElseTest.read(x));
+		assertEquals(Integer.valueOf(0), OrElseTest.read(y));
+		assertEquals(Integer.valueOf(2), OrElseTest.read(z));
+	}
+
+	@Test
+	public void exceptionAbandonsUncommittedMembers() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		List<Transaction<?>> batch = new ArrayList<Transaction<?>>();
+		batch.add(increment(x, new AtomicInteger()));
+		batch.add(new Transaction<Void>() {
+			@Override
+			public Void run() {
+				throw new IllegalArgumentException();
+			}
+		});
+		try {
+			CarlSTM.executeBatch(batch);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(Integer.valueOf(0), OrElseTest.read(x));
+		// the thread is left able to run the next transaction
+		assertEquals(Arrays.<Object>asList(1),
+				CarlSTM.executeBatch(Arrays.asList(increment(x,
+						new AtomicInteger()))));
+	}
+}
@@ -0,0 +1,130 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * A commit locks its write set, validates its read set by version and
+ * publishes all of its writes at once.
+ */
+public class CommitTest {
+	/** A value that fails the test if a commit compares it. */
+	static final class Opaque {
+		@Override
+		public boolean equals(Object other) {
+			throw new AssertionError("commit compared values");
+		}
+
+		@Override
+		public int hashCode() {
+			return 0;
+		}
+	}
+
+	static void rewrite(final TxObject<?> object) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						write(object);
+						return null;
+					}
+				});
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static <T> void write(TxObject<T> object)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		object.write(object.read());
+	}
+
+	@Test
+	public void equalValueCommittedSinceReadStillAborts() {
+		final TxObject<Opaque> read = new TxObject<Opaque>(new Opaque());
+		final TxObject<Integer> written = new TxObject<Integer>(0);
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				read.read();
+				if (runs.incrementAndGet() == 1) {
+					// the same value under a newer version
+					rewrite(read);
+				}
+				written.write(written.read() + 1);
+				return null;
+			}
+		});
+		assertEquals(2, runs.get());
+		assertEquals(Integer.valueOf(1), OrElseTest.read(written));
+	}
+
+	@Test
+	public void writesToSeveralObjectsBecomeVisibleTogether() throws Exception {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final AtomicBoolean torn = new AtomicBoolean();
+		final int perThread = 2000;
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						CarlSTM.execute(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								x.write(x.read() + 1);
+								y.write(y.read() + 1);
+								return null;
+							}
+						});
+					}
+				}
+			};
+			writers[t].start();
+		}
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < perThread; i++) {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							if (!x.read().equals(y.read())) {
+								torn.set(true);
+							}
+							return null;
+						}
+					});
+				}
+			}
+		};
+		reader.start();
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		reader.join();
+		assertFalse(torn.get());
+		assertEquals(Integer.valueOf(writers.length * perThread), OrElseTest.read(x));
+		assertEquals(Integer.valueOf(writers.length * perThread), OrElseTest.read(y));
+	}
+}
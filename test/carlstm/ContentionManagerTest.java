@@ -0,0 +1,145 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * A contention manager hears about every attempt of the transactions it
+ * manages, and each built-in policy lets contended transactions finish.
+ */
+public class ContentionManagerTest {
+	/** Records the calls it gets and never makes a transaction wait. */
+	static final class Recording implements ContentionManager {
+		final List<String> calls = new ArrayList<String>();
+
+		@Override
+		public synchronized void onStart(ContentionInfo info) {
+			calls.add("start");
+		}
+
+		@Override
+		public boolean shouldWait(ContentionInfo info, int spins) {
+			return false;
+		}
+
+		@Override
+		public synchronized long onAbort(ContentionInfo info) {
+			calls.add("abort " + info.getAborts());
+			return 0;
+		}
+
+		@Override
+		public synchronized void onCommit(ContentionInfo info) {
+			calls.add("commit");
+		}
+
+		@Override
+		public synchronized void onFinish(ContentionInfo info) {
+			calls.add("finish");
+		}
+	}
+
+	@Test
+	public void managerSeesEveryAttempt() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final int[] runs = new int[1];
+		Recording manager = new Recording();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.read();
+				if (++runs[0] == 1) {
+					OrElseTest.commitElsewhere(x);
+				}
+				x.write(x.read() + 1);
+				return null;
+			}
+		}, manager);
+		assertEquals("[start, abort 1, start, commit, finish]",
+				manager.calls.toString());
+		assertEquals(Integer.valueOf(2), OrElseTest.read(x));
+	}
+
+	@Test
+	public void managerHearsOfTransactionThatThrew() {
+		Recording manager = new Recording();
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					throw new IllegalStateException();
+				}
+			}, manager);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals("[start, finish]", manager.calls.toString());
+	}
+
+	@Test
+	public void greedyLeaderThatFinishesStepsDown() {
+		GreedyContentionManager manager = new GreedyContentionManager();
+		ContentionInfo older = new ContentionInfo();
+		older.begin();
+		ContentionInfo younger = new ContentionInfo();
+		younger.begin();
+		younger.startTime = older.startTime + 1;
+		older.aborted();
+		assertEquals(0, manager.onAbort(older));
+		younger.aborted();
+		manager.onAbort(younger);
+		// the older transaction leads, so the younger one gives up waiting
+		assertFalse(manager.shouldWait(younger, 16));
+		manager.onFinish(older);
+		assertEquals(0, manager.onAbort(younger));
+		assertTrue(manager.shouldWait(younger, 100));
+	}
+
+	static void contend(final ContentionManager manager) throws Exception {
+		final TxObject<Integer> counter = new TxObject<Integer>(0);
+		final int perThread = 500;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						CarlSTM.execute(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								counter.write(counter.read() + 1);
+								return null;
+							}
+						}, manager);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(Integer.valueOf(threads.length * perThread),
+				OrElseTest.read(counter));
+	}
+
+	@Test(timeout = 60000)
+	public void builtInPoliciesFinishContendedIncrements() throws Exception {
+		contend(new BackoffContentionManager());
+		contend(new PoliteContentionManager());
+		contend(new KarmaContentionManager());
+		contend(new GreedyContentionManager());
+		contend(new SpinParkContentionManager());
+	}
+}
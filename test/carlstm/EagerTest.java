@@ -0,0 +1,164 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * An eager transaction locks an object at its first write and writes in
+ * place, keeping the old value to put back if it aborts.
+ */
+public class EagerTest {
+	@Test
+	public void abortPutsBackTheOldValues() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final AtomicInteger runs = new AtomicInteger();
+		int seen = CarlSTM.execute(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				int run = runs.incrementAndGet();
+				x.write(x.read() + 10);
+				if (run == 1) {
+					OrElseTest.commitElsewhere(y);
+				}
+				// the first run aborts here and undoes its write to x
+				y.read();
+				return x.read();
+			}
+		}, ExecutionMode.EAGER);
+		assertEquals(2, runs.get());
+		assertEquals(10, seen);
+		assertEquals(Integer.valueOf(10), OrElseTest.read(x));
+	}
+
+	@Test
+	public void thrownExceptionPutsBackTheOldValue() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					x.write(1);
+					throw new IllegalStateException();
+				}
+			}, ExecutionMode.EAGER);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Integer.valueOf(0), OrElseTest.read(x));
+	}
+
+	@Test
+	public void conflictingWriteAbortsAtTheWrite() throws Exception {
+		// striped mode runs eager transactions lazily
+		assumeFalse(OwnershipRecords.STRIPED);
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread owner = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						x.write(1);
+						locked.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return null;
+					}
+				}, ExecutionMode.EAGER);
+			}
+		};
+		owner.start();
+		locked.await();
+		final AtomicInteger pastWrite = new AtomicInteger();
+		final AtomicInteger aborts = new AtomicInteger();
+		ContentionManager manager = new BackoffContentionManager() {
+			@Override
+			public boolean shouldWait(ContentionInfo info, int spins) {
+				return false;
+			}
+
+			@Override
+			public long onAbort(ContentionInfo info) {
+				aborts.incrementAndGet();
+				// let the owner commit before the next attempt
+				release.countDown();
+				try {
+					owner.join();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return 0;
+			}
+		};
+		ExecutionMode mode = CarlSTM.getExecutionMode();
+		CarlSTM.setExecutionMode(ExecutionMode.EAGER);
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					x.write(2);
+					pastWrite.incrementAndGet();
+					return null;
+				}
+			}, manager);
+		} finally {
+			CarlSTM.setExecutionMode(mode);
+		}
+		assertEquals(1, aborts.get());
+		// the conflict was found before the rest of the body ran
+		assertEquals(1, pastWrite.get());
+		assertEquals(Integer.valueOf(2), OrElseTest.read(x));
+	}
+
+	@Test
+	public void rolledBackAlternativeWrittenInPlaceRunsAgainLazily() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		ExecutionMode mode = CarlSTM.getExecutionMode();
+		CarlSTM.setExecutionMode(ExecutionMode.EAGER);
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					CarlSTM.orElse(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							x.write(1);
+							CarlSTM.retry();
+							return null;
+						}
+					}, new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							x.write(x.read() + 2);
+							return null;
+						}
+					});
+					return null;
+				}
+			});
+		} finally {
+			CarlSTM.setExecutionMode(mode);
+		}
+		assertEquals(Integer.valueOf(2), OrElseTest.read(x));
+	}
+}
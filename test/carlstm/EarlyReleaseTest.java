@@ -0,0 +1,65 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * An object released by a transaction leaves its read set, so commits to
+ * it no longer abort the transaction.
+ */
+public class EarlyReleaseTest {
+	static int traverse(final TxObject<Integer> passed,
+			final TxObject<Integer> target, final boolean release) {
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				passed.read();
+				if (release) {
+					passed.release();
+				}
+				if (runs.incrementAndGet() == 1) {
+					OrElseTest.commitElsewhere(passed);
+				}
+				target.write(target.read() + 1);
+				return null;
+			}
+		});
+		return runs.get();
+	}
+
+	@Test
+	public void commitToReleasedObjectDoesNotAbort() {
+		TxObject<Integer> passed = new TxObject<Integer>(0);
+		TxObject<Integer> target = new TxObject<Integer>(0);
+		assertEquals(1, traverse(passed, target, true));
+		assertEquals(Integer.valueOf(1), OrElseTest.read(target));
+	}
+
+	@Test
+	public void commitToKeptObjectAborts() {
+		TxObject<Integer> passed = new TxObject<Integer>(0);
+		TxObject<Integer> target = new TxObject<Integer>(0);
+		assertEquals(2, traverse(passed, target, false));
+		assertEquals(Integer.valueOf(1), OrElseTest.read(target));
+	}
+
+	@Test
+	public void releasingWrittenObjectKeepsTheWrite() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.write(x.read() + 1);
+				x.release();
+				return null;
+			}
+		});
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+	}
+}
@@ -0,0 +1,34 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * How {@link CarlSTM#execute} ends a transaction that fails.
+ */
+public class ExecuteTest {
+	@Test
+	public void noActiveTransactionFromBodyIsRethrown() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					x.write(1);
+					throw new NoActiveTransactionException();
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof NoActiveTransactionException);
+		}
+		// the write is dropped and the thread can run the next transaction
+		assertFalse(TxInfo.forThread().activeTransaction);
+		assertEquals(Integer.valueOf(0), OrElseTest.read(x));
+	}
+}
@@ -0,0 +1,146 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * An irrevocable transaction runs with no writing transaction alongside,
+ * so it commits on its first irrevocable attempt. Irrevocable attempts wait
+ * for the writing attempts of every thread, which each register their
+ * TxInfo once.
+ */
+public class IrrevocableTest {
+	/**
+	 * Run a transaction that reads a number of objects and is in conflict on
+	 * every attempt that is not irrevocable.
+	 *
+	 * @return the number of attempts
+	 */
+	static int conflictUntilIrrevocable(int objects) {
+		final TxObject<Integer>[] read = newObjects(objects);
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				runs.incrementAndGet();
+				for (TxObject<Integer> object : read) {
+					object.read();
+				}
+				if (!CarlSTM.isIrrevocable()) {
+					OrElseTest.commitElsewhere(read[0]);
+				}
+				read[0].write(read[0].read() + 1);
+				return null;
+			}
+		});
+		return runs.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	static TxObject<Integer>[] newObjects(int count) {
+		TxObject<Integer>[] objects = new TxObject[count];
+		for (int i = 0; i < count; i++) {
+			objects[i] = new TxObject<Integer>(0);
+		}
+		return objects;
+	}
+
+	@Test
+	public void sideEffectAfterBecomingIrrevocableRunsOnce() {
+		final AtomicInteger runs = new AtomicInteger();
+		final AtomicInteger effects = new AtomicInteger();
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				runs.incrementAndGet();
+				x.write(x.read() + 1);
+				CarlSTM.becomeIrrevocable();
+				assertTrue(CarlSTM.isIrrevocable());
+				effects.incrementAndGet();
+				return null;
+			}
+		});
+		assertEquals(2, runs.get());
+		assertEquals(1, effects.get());
+		assertFalse(CarlSTM.isIrrevocable());
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+	}
+
+	@Test
+	public void repeatedAbortsMakeTransactionIrrevocable() {
+		int aborts = CarlSTM.getIrrevocableAbortThreshold();
+		int size = CarlSTM.getIrrevocableSizeThreshold();
+		CarlSTM.setIrrevocableThresholds(2, 0);
+		try {
+			assertEquals(3, conflictUntilIrrevocable(1));
+		} finally {
+			CarlSTM.setIrrevocableThresholds(aborts, size);
+		}
+	}
+
+	@Test
+	public void largeAbortedAttemptMakesTransactionIrrevocable() {
+		int aborts = CarlSTM.getIrrevocableAbortThreshold();
+		int size = CarlSTM.getIrrevocableSizeThreshold();
+		CarlSTM.setIrrevocableThresholds(0, 10);
+		try {
+			assertEquals(2, conflictUntilIrrevocable(20));
+		} finally {
+			CarlSTM.setIrrevocableThresholds(aborts, size);
+		}
+	}
+
+	@Test
+	public void writersWaitForIrrevocableTransaction() throws Exception {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final Thread[] writer = new Thread[1];
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				CarlSTM.becomeIrrevocable();
+				writer[0] = new Thread() {
+					@Override
+					public void run() {
+						OrElseTest.commitElsewhere(x);
+					}
+				};
+				writer[0].start();
+				try {
+					writer[0].join(100);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				// the writer cannot start until this transaction is done
+				assertTrue(writer[0].isAlive());
+				return null;
+			}
+		});
+		writer[0].join();
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+	}
+
+	@Test
+	public void registryForgetsFinishedThreads() throws Exception {
+		TxObject<Integer> object = new TxObject<Integer>(0);
+		int before = Irrevocable.registered();
+		for (int i = 0; i < 2000; i++) {
+			OrElseTest.commitElsewhere(object);
+		}
+		// each registration drops the TxInfos collected since the last one
+		for (int i = 0; i < 100 && Irrevocable.registered() > before + 100; i++) {
+			System.gc();
+			Thread.sleep(10);
+			OrElseTest.commitElsewhere(object);
+		}
+		assertTrue(Irrevocable.registered() <= before + 100);
+	}
+}
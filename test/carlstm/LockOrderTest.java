@@ -0,0 +1,31 @@
+package carlstm;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * The commit locks cells in a total order, which needs every cell to have a
+ * distinct key even when identity hashes collide.
+ */
+public class LockOrderTest {
+	@Test
+	public void lockOrderIsUniqueWhenIdentityHashesCollide() {
+		assumeFalse(OwnershipRecords.STRIPED);
+		Set<Integer> hashes = new HashSet<Integer>();
+		Set<Long> orders = new HashSet<Long>();
+		boolean collided = false;
+		// identity hashes have at most 31 bits, so a few hundred thousand
+		// cells are all but certain to share one
+		for (int i = 0; i < 500000; i++) {
+			TxObject<Integer> cell = new TxObject<Integer>(i);
+			collided |= !hashes.add(cell.hash());
+			assertTrue(orders.add(cell.lockOrder()));
+		}
+		assertTrue(collided);
+	}
+}
@@ -0,0 +1,125 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * An execute inside a running transaction joins it, and a conflict inside
+ * the nested transaction runs only that part again when the enclosing
+ * transaction's reads are still valid.
+ */
+public class NestingTest {
+	@SafeVarargs
+	static Transaction<Integer> readInner(final TxObject<Integer> object,
+			final AtomicInteger runs, final TxObject<Integer>... changeFirst) {
+		return new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				if (runs.incrementAndGet() == 1) {
+					// committed after the enclosing transaction started
+					for (TxObject<Integer> changed : changeFirst) {
+						OrElseTest.commitElsewhere(changed);
+					}
+				}
+				return object.read();
+			}
+		};
+	}
+
+	@Test
+	public void nestedWritesCommitWithTheParent() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		int seen = CarlSTM.execute(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.write(1);
+				return CarlSTM.execute(new Transaction<Integer>() {
+					@Override
+					public Integer run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						y.write(2);
+						return x.read();
+					}
+				});
+			}
+		});
+		assertEquals(1, seen);
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+		assertEquals(Integer.valueOf(2), OrElseTest.read(y));
+	}
+
+	@Test
+	public void conflictInNestedPartRunsOnlyThatPart() {
+		final TxObject<Integer> a = new TxObject<Integer>(0);
+		final TxObject<Integer> b = new TxObject<Integer>(0);
+		final AtomicInteger outerRuns = new AtomicInteger();
+		final AtomicInteger innerRuns = new AtomicInteger();
+		int sum = CarlSTM.execute(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				outerRuns.incrementAndGet();
+				int first = a.read();
+				return first + CarlSTM.execute(readInner(b, innerRuns, b));
+			}
+		});
+		assertEquals(1, sum);
+		assertEquals(1, outerRuns.get());
+		assertEquals(2, innerRuns.get());
+	}
+
+	@Test
+	public void conflictOnParentReadRunsEverythingAgain() {
+		final TxObject<Integer> a = new TxObject<Integer>(0);
+		final TxObject<Integer> b = new TxObject<Integer>(0);
+		final AtomicInteger outerRuns = new AtomicInteger();
+		final AtomicInteger innerRuns = new AtomicInteger();
+		int sum = CarlSTM.execute(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				outerRuns.incrementAndGet();
+				int first = a.read();
+				return first + CarlSTM.execute(readInner(b, innerRuns, a, b));
+			}
+		});
+		assertEquals(2, sum);
+		assertEquals(2, outerRuns.get());
+		assertEquals(2, innerRuns.get());
+	}
+
+	@Test
+	public void caughtNestedExceptionUndoesOnlyTheNestedWrites() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.write(1);
+				try {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							x.write(2);
+							y.write(2);
+							throw new IllegalStateException();
+						}
+					});
+				} catch (IllegalStateException e) {
+					// go on without the nested writes
+				}
+				return null;
+			}
+		});
+		assertEquals(Integer.valueOf(1), OrElseTest.read(x));
+		assertEquals(Integer.valueOf(0), OrElseTest.read(y));
+	}
+}
@@ -0,0 +1,174 @@
+package carlstm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * The elements of an off-heap array share a version per chunk, writes are
+ * buffered per chunk, and a savepoint rolls back exactly the writes made
+ * since it was opened.
+ */
+public class OffHeapArrayTest {
+	static void setElsewhere(final TxLongArray array, final int index) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(fill(array, 1, index));
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the number of attempts of a transaction that reads one element
+	 *         while another transaction commits to a second one
+	 */
+	static int readWhileOtherElementChanges(final TxLongArray array,
+			final int read, final int changed) {
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				long value = array.get(read);
+				if (runs.incrementAndGet() == 1) {
+					setElsewhere(array, changed);
+				}
+				array.set(array.length() - 1, value);
+				return null;
+			}
+		});
+		return runs.get();
+	}
+
+	@Test
+	public void elementsConflictOnlyWithinAChunk() {
+		TxLongArray array = new TxLongArray(256, 64);
+		assertEquals(64, array.chunkSize());
+		assertEquals(2, readWhileOtherElementChanges(array, 0, 63));
+		assertEquals(1, readWhileOtherElementChanges(array, 0, 64));
+		// a chunk of one gives every element its own version
+		assertEquals(1, readWhileOtherElementChanges(new TxLongArray(8, 1), 0, 1));
+	}
+
+	@Test
+	public void rangeReadSeesBufferedWritesAndNegativeValues() {
+		final TxIntArray array = new TxIntArray(100, 16);
+		int[] seen = CarlSTM.execute(new Transaction<int[]>() {
+			@Override
+			public int[] run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				array.set(15, -1);
+				array.add(16, Integer.MIN_VALUE);
+				int[] result = new int[4];
+				array.get(14, result, 0, 4);
+				return result;
+			}
+		});
+		assertArrayEquals(new int[] { 0, -1, Integer.MIN_VALUE, 0 }, seen);
+		int committed = CarlSTM.executeReadOnly(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return array.get(15);
+			}
+		});
+		assertEquals(-1, committed);
+	}
+
+	static long[] contents(final TxLongArray array) {
+		return CarlSTM.execute(new Transaction<long[]>() {
+			@Override
+			public long[] run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				long[] result = new long[array.length()];
+				array.get(0, result, 0, result.length);
+				return result;
+			}
+		});
+	}
+
+	static Transaction<Void> fill(final TxLongArray array, final long value,
+			final int... indexes) {
+		return new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				for (int index : indexes) {
+					array.set(index, value);
+				}
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void rolledBackAlternativeKeepsEarlierWritesToTheChunk() {
+		final TxLongArray array = new TxLongArray(4);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				array.set(0, 1);
+				array.set(1, 1);
+				CarlSTM.orElse(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						// the second write to element 0 reuses the buffer
+						// copied for the first one
+						array.set(0, 2);
+						array.set(2, 2);
+						array.set(0, 3);
+						CarlSTM.retry();
+						return null;
+					}
+				}, fill(array, 4, 3));
+				return null;
+			}
+		});
+		assertArrayEquals(new long[] { 1, 1, 0, 4 }, contents(array));
+	}
+
+	@Test
+	public void innerRollbackKeepsOuterAlternativeWrites() {
+		final TxLongArray array = new TxLongArray(4);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				array.set(1, 1);
+				CarlSTM.orElse(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						array.set(0, 5);
+						CarlSTM.orElse(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								array.set(0, 6);
+								array.set(1, 6);
+								CarlSTM.retry();
+								return null;
+							}
+						}, fill(array, 7, 2));
+						array.set(3, 8);
+						return null;
+					}
+				}, fill(array, 9, 0, 1, 2, 3));
+				return null;
+			}
+		});
+		assertArrayEquals(new long[] { 5, 1, 7, 8 }, contents(array));
+	}
+}
@@ -0,0 +1,165 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Savepoints taken by {@link CarlSTM#orElse} and by nested transactions, and
+ * how they are rolled back when an alternative or a nested transaction
+ * leaves early.
+ */
+public class OrElseTest {
+	static <T> T read(final TxObject<T> object) {
+		return CarlSTM.execute(new Transaction<T>() {
+			@Override
+			public T run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return object.read();
+			}
+		});
+	}
+
+	@Test
+	public void retryRunsSecondAlternativeWithoutFirstWrites() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		int result = CarlSTM.execute(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return CarlSTM.orElse(new Transaction<Integer>() {
+					@Override
+					public Integer run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						x.write(1);
+						CarlSTM.retry();
+						return 1;
+					}
+				}, new Transaction<Integer>() {
+					@Override
+					public Integer run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						y.write(2);
+						return 2;
+					}
+				});
+			}
+		});
+		assertEquals(2, result);
+		assertEquals(Integer.valueOf(0), read(x));
+		assertEquals(Integer.valueOf(2), read(y));
+	}
+
+	@Test
+	public void exceptionInFirstAlternativeUndoesItsWrites() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final TxObject<Integer> z = new TxObject<Integer>(0);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.write(1);
+				try {
+					CarlSTM.orElse(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							y.write(1);
+							throw new IllegalStateException();
+						}
+					}, null);
+					fail();
+				} catch (IllegalStateException e) {
+				}
+				// a later nested transaction must roll back to its own
+				// savepoint, not to one the alternative left open
+				try {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							z.write(1);
+							throw new IllegalArgumentException();
+						}
+					});
+					fail();
+				} catch (IllegalArgumentException e) {
+				}
+				return null;
+			}
+		});
+		assertEquals(Integer.valueOf(1), read(x));
+		assertEquals(Integer.valueOf(0), read(y));
+		assertEquals(Integer.valueOf(0), read(z));
+	}
+
+	@Test
+	public void conflictInsideOrElseRestartsEnclosingNestedTransaction() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final TxObject<Integer> changed = new TxObject<Integer>(0);
+		final AtomicInteger attempts = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				x.write(1);
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						if (attempts.incrementAndGet() == 1) {
+							// only the first attempt writes, so the write
+							// must be gone after the restart
+							y.write(1);
+							commitElsewhere(changed);
+						}
+						return CarlSTM.orElse(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								changed.read();
+								return null;
+							}
+						}, null);
+					}
+				});
+				return null;
+			}
+		});
+		assertEquals(2, attempts.get());
+		assertEquals(Integer.valueOf(1), read(x));
+		assertEquals(Integer.valueOf(0), read(y));
+	}
+
+	/**
+	 * Commit a write to an object from another thread, so the running
+	 * transaction sees a newer version when it reads the object.
+	 */
+	static void commitElsewhere(final TxObject<Integer> object) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						object.write(object.read() + 1);
+						return null;
+					}
+				});
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * The primitive cells keep their values and buffered writes unboxed, in lazy
+ * and eager transactions alike.
+ */
+public class PrimitiveCellTest {
+	@Test
+	public void extremeValuesSurviveTheLog() {
+		final TxInt i = new TxInt(0);
+		final TxLong l = new TxLong(0);
+		final TxDouble d = new TxDouble(0);
+		final TxBoolean b = new TxBoolean(false);
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				i.set(Integer.MIN_VALUE);
+				l.set(Long.MIN_VALUE);
+				d.set(-0.0);
+				b.set(true);
+				// reads see the buffered writes
+				assertEquals(Integer.MIN_VALUE, i.get());
+				assertEquals(Long.MIN_VALUE, l.get());
+				assertEquals(Double.doubleToRawLongBits(-0.0),
+						Double.doubleToRawLongBits(d.get()));
+				assertTrue(b.get());
+				return null;
+			}
+		});
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				assertEquals(Integer.MIN_VALUE, i.get());
+				assertEquals(Long.MIN_VALUE, l.get());
+				assertEquals(Double.doubleToRawLongBits(-0.0),
+						Double.doubleToRawLongBits(d.get()));
+				assertTrue(b.get());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void eagerWritesAreUndoneWhenTheTransactionThrows() {
+		final TxInt i = new TxInt(7);
+		final TxDouble d = new TxDouble(1.5);
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					i.increment();
+					d.add(1);
+					throw new IllegalStateException();
+				}
+			}, ExecutionMode.EAGER);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		CarlSTM.executeReadOnly(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				assertEquals(7, i.get());
+				assertEquals(1.5, d.get(), 0);
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void contendedIncrementsAreNotLost() throws Exception {
+		final TxInt i = new TxInt(0);
+		final TxLong l = new TxLong(0);
+		final int perThread = 2000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int n = 0; n < perThread; n++) {
+						CarlSTM.execute(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								i.increment();
+								l.add(2);
+								return null;
+							}
+						});
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long[] totals = CarlSTM.executeReadOnly(new Transaction<long[]>() {
+			@Override
+			public long[] run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return new long[] { i.get(), l.get() };
+			}
+		});
+		assertEquals(threads.length * perThread, totals[0]);
+		assertEquals(2L * threads.length * perThread, totals[1]);
+	}
+}
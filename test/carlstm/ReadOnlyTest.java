@@ -0,0 +1,91 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * A read-only transaction checks every read against its start version
+ * instead of keeping a read set, and may not write.
+ */
+public class ReadOnlyTest {
+	@Test
+	public void writeThrowsAndCommitsNothing() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		try {
+			CarlSTM.executeReadOnly(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					x.write(1);
+					return null;
+				}
+			});
+			fail();
+		} catch (ReadOnlyTransactionException e) {
+			// expected
+		}
+		assertEquals(Integer.valueOf(0), OrElseTest.read(x));
+	}
+
+	@Test
+	public void readNewerThanStartRunsAgain() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final AtomicInteger runs = new AtomicInteger();
+		int sum = CarlSTM.executeReadOnly(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				int first = x.read();
+				if (runs.incrementAndGet() == 1) {
+					// committed after the transaction started
+					OrElseTest.commitElsewhere(y);
+				}
+				return first + y.read();
+			}
+		});
+		assertEquals(2, runs.get());
+		assertEquals(1, sum);
+	}
+
+	@Test
+	public void readersSeeConsistentValues() throws Exception {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final AtomicInteger torn = new AtomicInteger();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 2000; i++) {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							x.write(x.read() + 1);
+							y.write(y.read() - 1);
+							return null;
+						}
+					});
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()) {
+			int sum = CarlSTM.executeReadOnly(new Transaction<Integer>() {
+				@Override
+				public Integer run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					return x.read() + y.read();
+				}
+			});
+			if (sum != 0) {
+				torn.incrementAndGet();
+			}
+		}
+		assertEquals(0, torn.get());
+	}
+}
@@ -0,0 +1,166 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Recovery of registered cells from the segments and checkpoints of a
+ * {@link RedoLog}.
+ */
+public class RedoLogTest {
+	private static final int SEGMENT_SIZE = 1 << 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void uninstall() {
+		CarlSTM.setRedoLog(null);
+	}
+
+	static void set(final TxLong cell, final long value) {
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				cell.set(value);
+				return null;
+			}
+		});
+	}
+
+	static long get(final TxLong cell) {
+		return CarlSTM.executeReadOnly(new Transaction<Long>() {
+			@Override
+			public Long run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return cell.get();
+			}
+		});
+	}
+
+	/**
+	 * @return the offset of the last record written to a segment
+	 */
+	static int lastRecord(byte[] segment) {
+		ByteBuffer buffer = ByteBuffer.wrap(segment);
+		int last = -1;
+		while (buffer.remaining() >= 8) {
+			int length = buffer.getInt();
+			if (length <= 0) {
+				break;
+			}
+			last = buffer.position() - 4;
+			buffer.position(buffer.position() + 4 + length);
+		}
+		return last;
+	}
+
+	@Test
+	public void replayStopsAtTornRecord() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		RedoLog log = RedoLog.open(dir, SEGMENT_SIZE);
+		TxLong cell = log.register(1, new TxLong(0));
+		CarlSTM.setRedoLog(log);
+		for (int value = 1; value <= 3; value++) {
+			set(cell, value);
+		}
+		CarlSTM.setRedoLog(null);
+		log.close();
+
+		// flip the last byte of the last record, as if the crash came before
+		// it was completely on disk
+		Path segment = dir.resolve("redo-0000000000.log");
+		byte[] bytes = Files.readAllBytes(segment);
+		int last = lastRecord(bytes);
+		int end = last + 8 + ByteBuffer.wrap(bytes, last, 4).getInt();
+		bytes[end - 1] ^= 1;
+		Files.write(segment, bytes);
+
+		log = RedoLog.open(dir, SEGMENT_SIZE);
+		assertEquals(2, get(log.register(1, new TxLong(0))));
+		log.close();
+	}
+
+	@Test
+	public void checkpointThenReplay() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		RedoLog log = RedoLog.open(dir, SEGMENT_SIZE);
+		TxLong a = log.register(1, new TxLong(0));
+		TxLong b = log.register(2, new TxLong(0));
+		CarlSTM.setRedoLog(log);
+		set(a, 5);
+		set(b, 7);
+		log.checkpoint();
+		set(a, 6);
+		CarlSTM.setRedoLog(null);
+		log.close();
+
+		// leave b unregistered, so the next checkpoint has to carry it over
+		log = RedoLog.open(dir, SEGMENT_SIZE);
+		a = log.register(1, new TxLong(0));
+		assertEquals(6, get(a));
+		log.checkpoint();
+		log.close();
+
+		log = RedoLog.open(dir, SEGMENT_SIZE);
+		assertEquals(6, get(log.register(1, new TxLong(0))));
+		assertEquals(7, get(log.register(2, new TxLong(0))));
+		log.close();
+	}
+
+	@Test
+	public void registrationRacingCheckpoints() throws Exception {
+		final int cells = 2000;
+		Path dir = folder.getRoot().toPath();
+		final RedoLog log = RedoLog.open(dir, SEGMENT_SIZE);
+		CarlSTM.setRedoLog(log);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread checkpointer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (!done.get()) {
+						log.checkpoint();
+					}
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			}
+		};
+		checkpointer.start();
+		List<TxLong> registered = new ArrayList<TxLong>();
+		for (int id = 0; id < cells; id++) {
+			TxLong cell = log.register(id, new TxLong(0));
+			set(cell, id);
+			registered.add(cell);
+		}
+		done.set(true);
+		checkpointer.join();
+		CarlSTM.setRedoLog(null);
+		log.close();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+
+		RedoLog reopened = RedoLog.open(dir, SEGMENT_SIZE);
+		for (int id = 0; id < cells; id++) {
+			assertEquals(id, get(reopened.register(id, new TxLong(-1))));
+		}
+		reopened.close();
+	}
+}
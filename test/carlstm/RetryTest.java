@@ -0,0 +1,217 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Transactions blocked in {@link CarlSTM#retry()} are woken by commits to
+ * what they read.
+ */
+public class RetryTest {
+	private static final long TIMEOUT = 10;
+
+	static void write(final TxObject<Integer> object, final int value) {
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				object.write(value);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Start executing a transaction in a new thread.
+	 */
+	static <T> FutureTask<T> start(final Transaction<T> tx) {
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			@Override
+			public T call() {
+				return CarlSTM.execute(tx);
+			}
+		});
+		new Thread(task).start();
+		return task;
+	}
+
+	@Test
+	public void retryWakesWhenReadObjectChanges() throws Exception {
+		final TxObject<Integer> flag = new TxObject<Integer>(0);
+		final TxObject<Integer> other = new TxObject<Integer>(0);
+		FutureTask<Integer> waiting = start(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				int value = flag.read();
+				if (value == 0) {
+					CarlSTM.retry();
+				}
+				return value;
+			}
+		});
+		Thread.sleep(50);
+		// a commit to an object the transaction did not read must not let it
+		// through
+		write(other, 1);
+		Thread.sleep(50);
+		assertFalse(waiting.isDone());
+		write(flag, 7);
+		assertEquals(Integer.valueOf(7), waiting.get(TIMEOUT, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void retryInBothAlternativesWaitsOnEither() throws Exception {
+		final TxObject<Integer> first = new TxObject<Integer>(0);
+		final TxObject<Integer> second = new TxObject<Integer>(0);
+		FutureTask<String> waiting = start(new Transaction<String>() {
+			@Override
+			public String run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return CarlSTM.orElse(new Transaction<String>() {
+					@Override
+					public String run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						if (first.read() == 0) {
+							CarlSTM.retry();
+						}
+						return "first";
+					}
+				}, new Transaction<String>() {
+					@Override
+					public String run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						if (second.read() == 0) {
+							CarlSTM.retry();
+						}
+						return "second";
+					}
+				});
+			}
+		});
+		Thread.sleep(50);
+		assertFalse(waiting.isDone());
+		// the first alternative was rolled back, but what it read still
+		// wakes the transaction
+		write(first, 1);
+		assertEquals("first", waiting.get(TIMEOUT, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void interruptEndsBlockedTransaction() throws Exception {
+		final TxObject<Integer> flag = new TxObject<Integer>(0);
+		final AtomicInteger attempts = new AtomicInteger();
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		final boolean[] interrupted = new boolean[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					CarlSTM.execute(new Transaction<Void>() {
+						@Override
+						public Void run() throws NoActiveTransactionException,
+								TransactionAbortedException {
+							attempts.incrementAndGet();
+							if (flag.read() == 0) {
+								CarlSTM.retry();
+							}
+							return null;
+						}
+					});
+				} catch (Throwable e) {
+					thrown.set(e);
+				}
+				interrupted[0] = Thread.currentThread().isInterrupted();
+			}
+		};
+		thread.start();
+		Thread.sleep(50);
+		thread.interrupt();
+		thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+		assertFalse(thread.isAlive());
+		assertTrue(thrown.get() instanceof TransactionInterruptedException);
+		assertTrue(interrupted[0]);
+		// the interrupt ended the transaction instead of running it again
+		assertEquals(1, attempts.get());
+	}
+
+	@Test
+	public void asyncWakeupDoesNotRunOnCommitter() throws Exception {
+		final TxObject<Integer> flag = new TxObject<Integer>(0);
+		final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+		Executor direct = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				task.run();
+			}
+		};
+		CompletableFuture<Integer> future = CarlSTM.executeAsync(
+				new Transaction<Integer>() {
+					@Override
+					public Integer run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						ranOn.set(Thread.currentThread());
+						int value = flag.read();
+						if (value == 0) {
+							CarlSTM.retry();
+						}
+						return value;
+					}
+				}, direct);
+		assertFalse(future.isDone());
+		write(flag, 3);
+		assertEquals(Integer.valueOf(3), future.get(TIMEOUT, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), ranOn.get());
+	}
+
+	@Test
+	public void rejectedWakeupFailsFutureNotCommitter() throws Exception {
+		final TxObject<Integer> flag = new TxObject<Integer>(0);
+		Executor once = new Executor() {
+			private boolean used;
+
+			@Override
+			public synchronized void execute(Runnable task) {
+				if (used) {
+					throw new RejectedExecutionException();
+				}
+				used = true;
+				task.run();
+			}
+		};
+		CompletableFuture<Integer> future = CarlSTM.executeAsync(
+				new Transaction<Integer>() {
+					@Override
+					public Integer run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						if (flag.read() == 0) {
+							CarlSTM.retry();
+						}
+						return 1;
+					}
+				}, once);
+		// the commit that wakes the transaction succeeds
+		write(flag, 1);
+		try {
+			future.get(TIMEOUT, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+}
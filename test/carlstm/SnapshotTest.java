@@ -0,0 +1,105 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Read-only transactions in multi-version mode read the values that were
+ * committed when they started.
+ */
+public class SnapshotTest {
+	@Before
+	public void enable() {
+		CarlSTM.setMultiVersion(true);
+	}
+
+	@After
+	public void disable() {
+		CarlSTM.setMultiVersion(false);
+	}
+
+	static Integer snapshot(final TxObject<Integer> object) {
+		return CarlSTM.executeReadOnly(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return object.read();
+			}
+		});
+	}
+
+	@Test
+	public void scanSeesValuesFromItsStartWithoutAborting() {
+		final TxObject<Integer> x = new TxObject<Integer>(0);
+		final TxObject<Integer> y = new TxObject<Integer>(0);
+		final AtomicInteger runs = new AtomicInteger();
+		int sum = CarlSTM.executeReadOnly(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				runs.incrementAndGet();
+				int first = x.read();
+				OrElseTest.commitElsewhere(x);
+				OrElseTest.commitElsewhere(y);
+				return first + y.read() + x.read();
+			}
+		});
+		assertEquals(0, sum);
+		assertEquals(1, runs.get());
+		assertEquals(Integer.valueOf(1), snapshot(x));
+	}
+
+	@Test
+	public void versionsNoReaderCanSeeAreReclaimed() {
+		TxObject<Integer> object = new TxObject<Integer>(0);
+		for (int i = 0; i < 1000; i++) {
+			OrElseTest.commitElsewhere(object);
+		}
+		int length = 0;
+		for (Snapshots.Version v = object.history(); v != null; v = v.next) {
+			length++;
+		}
+		// the horizon is only recomputed every so many commits
+		assertTrue("chain of " + length, length <= 100);
+	}
+
+	@Test(timeout = 10000)
+	public void readsAroundEagerWriterWithoutWaiting() throws Exception {
+		final TxObject<Integer> object = new TxObject<Integer>(1);
+		final CountDownLatch written = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						object.write(2);
+						written.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return null;
+					}
+				}, ExecutionMode.EAGER);
+			}
+		};
+		writer.start();
+		written.await();
+		// the writer holds the object until it commits
+		assertEquals(Integer.valueOf(1), snapshot(object));
+		release.countDown();
+		writer.join();
+		assertEquals(Integer.valueOf(2), snapshot(object));
+	}
+}
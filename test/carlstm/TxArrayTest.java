@@ -0,0 +1,150 @@
+package carlstm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * The granularity of a {@link TxArray} decides which elements share a
+ * version, and a copy within one array behaves like
+ * {@link System#arraycopy}.
+ */
+public class TxArrayTest {
+	static void setElsewhere(final TxArray<Integer> array, final int index) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						array.set(index, -1);
+						return null;
+					}
+				});
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the number of attempts of a transaction that reads one element
+	 *         while another transaction commits to a second one
+	 */
+	static int readWhileOtherElementChanges(final TxArray<Integer> array,
+			final int read, final int changed, final TxObject<Integer> out) {
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				Integer value = array.get(read);
+				if (runs.incrementAndGet() == 1) {
+					setElsewhere(array, changed);
+				}
+				out.write(value);
+				return null;
+			}
+		});
+		return runs.get();
+	}
+
+	static Integer[] contents(final TxArray<Integer> array) {
+		return CarlSTM.execute(new Transaction<Integer[]>() {
+			@Override
+			public Integer[] run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				Integer[] result = new Integer[array.length()];
+				for (int i = 0; i < result.length; i++) {
+					result[i] = array.get(i);
+				}
+				return result;
+			}
+		});
+	}
+
+	static TxArray<Integer> numbered(final TxArray<Integer> array) {
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				for (int i = 0; i < array.length(); i++) {
+					array.set(i, i);
+				}
+				return null;
+			}
+		});
+		return array;
+	}
+
+	@Test
+	public void granularityDecidesWhichElementsConflict() {
+		TxObject<Integer> out = new TxObject<Integer>(0);
+		TxArray<Integer> elements = new TxArray<Integer>(64, TxArray.Granularity.ELEMENT);
+		assertEquals(1, readWhileOtherElementChanges(elements, 0, 1, out));
+		TxArray<Integer> blocks = new TxArray<Integer>(64, TxArray.Granularity.BLOCK);
+		assertEquals(2, readWhileOtherElementChanges(blocks, 0, TxArray.BLOCK_SIZE - 1, out));
+		assertEquals(1, readWhileOtherElementChanges(blocks, 0, TxArray.BLOCK_SIZE, out));
+		TxArray<Integer> stripes = new TxArray<Integer>(64, 4);
+		assertEquals(2, readWhileOtherElementChanges(stripes, 1, 5, out));
+		assertEquals(1, readWhileOtherElementChanges(stripes, 1, 2, out));
+	}
+
+	@Test
+	public void overlappingCopyWorksInBothDirections() {
+		final TxArray<Integer> forward = numbered(new TxArray<Integer>(8));
+		final TxArray<Integer> backward = numbered(new TxArray<Integer>(8));
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				TxArray.copy(forward, 0, forward, 2, 5);
+				TxArray.copy(backward, 2, backward, 0, 5);
+				return null;
+			}
+		});
+		assertArrayEquals(new Integer[] { 0, 1, 0, 1, 2, 3, 4, 7 }, contents(forward));
+		assertArrayEquals(new Integer[] { 2, 3, 4, 5, 6, 5, 6, 7 }, contents(backward));
+	}
+
+	@Test
+	public void fillIsUndoneWithItsTransaction() {
+		final TxArray<Integer> array = numbered(new TxArray<Integer>(40,
+				TxArray.Granularity.BLOCK));
+		try {
+			CarlSTM.execute(new Transaction<Void>() {
+				@Override
+				public Void run() throws NoActiveTransactionException,
+						TransactionAbortedException {
+					array.fill(0, 40, 9);
+					throw new IllegalStateException();
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				array.fill(10, 30, 9);
+				return null;
+			}
+		});
+		Integer[] expected = new Integer[40];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = i >= 10 && i < 30 ? 9 : i;
+		}
+		assertArrayEquals(expected, contents(array));
+	}
+}
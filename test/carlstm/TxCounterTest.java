@@ -0,0 +1,132 @@
+package carlstm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Adds to a {@link TxCounter} commute with each other, and only a get makes
+ * a transaction depend on the count.
+ */
+public class TxCounterTest {
+	static void addElsewhere(final TxCounter counter, final long delta) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				CarlSTM.execute(new Transaction<Void>() {
+					@Override
+					public Void run() throws NoActiveTransactionException,
+							TransactionAbortedException {
+						counter.add(delta);
+						return null;
+					}
+				});
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static long read(final TxCounter counter) {
+		return CarlSTM.executeReadOnly(new Transaction<Long>() {
+			@Override
+			public Long run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				return counter.get();
+			}
+		});
+	}
+
+	@Test
+	public void concurrentAddDoesNotAbortAdder() {
+		final TxCounter counter = new TxCounter();
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				runs.incrementAndGet();
+				counter.add(1);
+				if (runs.get() == 1) {
+					addElsewhere(counter, 5);
+				}
+				return null;
+			}
+		});
+		assertEquals(1, runs.get());
+		assertEquals(6, read(counter));
+	}
+
+	@Test
+	public void concurrentAddAbortsReader() {
+		final TxCounter counter = new TxCounter();
+		final TxObject<Long> copy = new TxObject<Long>(0L);
+		final AtomicInteger runs = new AtomicInteger();
+		CarlSTM.execute(new Transaction<Void>() {
+			@Override
+			public Void run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				long seen = counter.get();
+				if (runs.incrementAndGet() == 1) {
+					addElsewhere(counter, 5);
+				}
+				copy.write(seen);
+				return null;
+			}
+		});
+		assertEquals(2, runs.get());
+		assertEquals(Long.valueOf(5), OrElseTest.read(copy));
+	}
+
+	@Test
+	public void getSeesOwnAdds() {
+		final TxCounter counter = new TxCounter(10);
+		long seen = CarlSTM.execute(new Transaction<Long>() {
+			@Override
+			public Long run() throws NoActiveTransactionException,
+					TransactionAbortedException {
+				counter.add(3);
+				long first = counter.get();
+				counter.decrement();
+				return first * 100 + counter.get();
+			}
+		});
+		assertEquals(1312, seen);
+		assertEquals(12, read(counter));
+	}
+
+	@Test
+	public void concurrentIncrementsAreNotLost() throws Exception {
+		final TxCounter counter = new TxCounter();
+		final int perThread = 2000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						CarlSTM.execute(new Transaction<Void>() {
+							@Override
+							public Void run() throws NoActiveTransactionException,
+									TransactionAbortedException {
+								counter.increment();
+								return null;
+							}
+						});
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * perThread, read(counter));
+	}
+}
@@ -0,0 +1,68 @@
+package examples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+
+/**
+ * Writes to a {@link TxHashMap} made inside an enclosing transaction only
+ * count once that transaction commits.
+ */
+public class TxHashMapTest {
+    @Test
+    public void putInsideAbortedTransactionLeavesNoTrace() {
+        final TxHashMap<Integer, Integer> map = new TxHashMap<Integer, Integer>(4);
+        // enough puts to start a resize inside the aborted transaction
+        for (int round = 0; round < 3; round++) {
+            try {
+                CarlSTM.execute(new Transaction<Void>() {
+                    public Void run() throws NoActiveTransactionException,
+                            TransactionAbortedException {
+                        for (int i = 0; i < 16; i++) {
+                            map.put(i, i);
+                        }
+                        throw new IllegalStateException();
+                    }
+                });
+                fail();
+            } catch (IllegalStateException e) {
+            }
+        }
+        assertEquals(0, map.size());
+        assertNull(map.get(0));
+        // the map still grows and keeps every entry
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+    }
+
+    @Test
+    public void putsInsideCommittedTransactionCountOnce() {
+        final TxHashMap<Integer, Integer> map = new TxHashMap<Integer, Integer>(4);
+        CarlSTM.execute(new Transaction<Void>() {
+            public Void run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                for (int i = 0; i < 100; i++) {
+                    map.put(i, i);
+                }
+                map.remove(0);
+                return null;
+            }
+        });
+        assertEquals(99, map.size());
+        for (int i = 1; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package examples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+
+/**
+ * {@link TxQueue} and {@link TxDeque} keep their bounds without a shared
+ * size, and their blocking operations sleep until another thread commits.
+ */
+public class TxQueueTest {
+    private static final long TIMEOUT = 10;
+
+    static <T> FutureTask<T> start(Callable<T> call) {
+        FutureTask<T> task = new FutureTask<T>(call);
+        new Thread(task).start();
+        return task;
+    }
+
+    @Test
+    public void boundedQueueRefillsAfterTakes() {
+        TxQueue<Integer> queue = new TxQueue<Integer>(3);
+        int next = 0;
+        int expected = 0;
+        // enough rounds for the producers' room to be recomputed many times
+        for (int round = 0; round < 10; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(3, queue.size());
+            for (int i = 0; i < 2; i++) {
+                assertEquals(Integer.valueOf(expected++), queue.poll());
+            }
+        }
+        assertEquals(1, queue.size());
+        assertEquals(Integer.valueOf(expected), queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void takeWaitsForAnItem() throws Exception {
+        final TxQueue<String> queue = new TxQueue<String>();
+        FutureTask<String> taken = start(new Callable<String>() {
+            public String call() {
+                return queue.take();
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(taken.isDone());
+        queue.offer("item");
+        assertEquals("item", taken.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void putWaitsForRoom() throws Exception {
+        final TxQueue<Integer> queue = new TxQueue<Integer>(1);
+        queue.put(1);
+        FutureTask<Boolean> put = start(new Callable<Boolean>() {
+            public Boolean call() {
+                queue.put(2);
+                return true;
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(put.isDone());
+        assertEquals(Integer.valueOf(1), queue.take());
+        assertTrue(put.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), queue.take());
+    }
+
+    @Test
+    public void producerDoesNotAbortConsumer() {
+        final TxQueue<Integer> queue = new TxQueue<Integer>();
+        queue.offer(1);
+        queue.offer(2);
+        final AtomicInteger runs = new AtomicInteger();
+        int item = CarlSTM.execute(new Transaction<Integer>() {
+            public Integer run() throws NoActiveTransactionException,
+                    TransactionAbortedException {
+                runs.incrementAndGet();
+                int first = queue.poll();
+                if (runs.get() == 1) {
+                    Thread producer = new Thread() {
+                        public void run() {
+                            queue.offer(3);
+                        }
+                    };
+                    producer.start();
+                    try {
+                        producer.join();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return first;
+            }
+        });
+        assertEquals(1, item);
+        assertEquals(1, runs.get());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void dequeKeepsOrderAtBothEndsAndItsBound() {
+        TxDeque<Integer> deque = new TxDeque<Integer>(4);
+        assertTrue(deque.offerLast(2));
+        assertTrue(deque.offerFirst(1));
+        assertTrue(deque.offerLast(3));
+        assertTrue(deque.offerFirst(0));
+        assertFalse(deque.offerLast(4));
+        assertFalse(deque.offerFirst(-1));
+        assertEquals(4, deque.size());
+        assertEquals(Integer.valueOf(0), deque.peekFirst());
+        assertEquals(Integer.valueOf(3), deque.peekLast());
+        assertEquals(Integer.valueOf(3), deque.pollLast());
+        assertTrue(deque.offerFirst(-1));
+        assertEquals(Integer.valueOf(-1), deque.pollFirst());
+        assertEquals(Integer.valueOf(0), deque.pollFirst());
+        assertEquals(Integer.valueOf(2), deque.pollLast());
+        assertEquals(Integer.valueOf(1), deque.pollLast());
+        assertNull(deque.pollFirst());
+        assertTrue(deque.isEmpty());
+    }
+
+    @Test
+    public void dequeTakeWaitsForAnItem() throws Exception {
+        final TxDeque<String> deque = new TxDeque<String>();
+        FutureTask<String> taken = start(new Callable<String>() {
+            public String call() {
+                return deque.takeLast();
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(taken.isDone());
+        deque.offerFirst("item");
+        assertEquals("item", taken.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+}
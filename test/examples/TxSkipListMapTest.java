@@ -0,0 +1,73 @@
+package examples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import carlstm.CarlSTM;
+import carlstm.NoActiveTransactionException;
+import carlstm.Transaction;
+import carlstm.TransactionAbortedException;
+
+/**
+ * Nodes inserted into a {@link TxSkipListMap} inside an enclosing
+ * transaction only become reachable through the index once it commits.
+ */
+public class TxSkipListMapTest {
+    @Test
+    public void putInsideAbortedTransactionLeavesNoGhost() {
+        final TxSkipListMap<Integer, Integer> map = new TxSkipListMap<Integer, Integer>();
+        try {
+            CarlSTM.execute(new Transaction<Void>() {
+                public Void run() throws NoActiveTransactionException,
+                        TransactionAbortedException {
+                    // enough nodes that some get index levels
+                    for (int i = 0; i < 400; i += 2) {
+                        map.put(i, i);
+                    }
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, map.size());
+        assertNull(map.get(0));
+        // inserts next to the keys of the aborted nodes must not be lost
+        for (int i = 0; i < 400; i++) {
+            map.put(i, i);
+        }
+        assertEquals(400, map.size());
+        for (int i = 0; i < 400; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+        assertEquals(400, map.subMap(0, 400).size());
+    }
+
+    @Test
+    public void removeInsideAbortedTransactionKeepsNode() {
+        final TxSkipListMap<Integer, Integer> map = new TxSkipListMap<Integer, Integer>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        try {
+            CarlSTM.execute(new Transaction<Void>() {
+                public Void run() throws NoActiveTransactionException,
+                        TransactionAbortedException {
+                    for (int i = 0; i < 100; i++) {
+                        map.remove(i);
+                    }
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+    }
+}